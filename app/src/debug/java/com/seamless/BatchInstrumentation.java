@@ -0,0 +1,68 @@
+package com.seamless;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.seamless.asr.BatchTranslator;
+import com.seamless.asr.InferenceThreads;
+import com.seamless.asr.ModelManager;
+import com.seamless.utils.ModelRegistry;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.io.File;
+import java.util.Arrays;
+
+// Batch translation of a directory of 16 kHz WAV/PCM files on the device, in debug builds only, e.g.
+// adb shell am instrument -w -e dir /sdcard/Android/data/org.woheller69.seemless/files/batch -e languages eng,spa -e workers 2 \
+//     org.woheller69.seemless/com.seamless.BatchInstrumentation
+// Results go to results.jsonl in dir unless -e output is given, -e model full|int8|small overrides the model variant. Workers read and preprocess files in parallel,
+// calls into the model are serialized.
+public class BatchInstrumentation extends Instrumentation {
+    private static final String TAG = "BatchInstrumentation";
+
+    private Bundle arguments;
+
+    @Override
+    public void onCreate(Bundle arguments) {
+        super.onCreate(arguments);
+        this.arguments = arguments;
+        start();
+    }
+
+    @Override
+    public void onStart() {
+        Bundle results = new Bundle();
+        try {
+            File filesDir = getTargetContext().getExternalFilesDir(null);
+            File dir = new File(arguments.getString("dir", new File(filesDir, "batch").getPath()));
+            File output = new File(arguments.getString("output", new File(dir, "results.jsonl").getPath()));
+            int workers = Integer.parseInt(arguments.getString("workers", "2"));
+            String languages = arguments.getString("languages", "eng");
+
+            ModelRegistry.Variant variant = arguments.getString("model") != null
+                    ? ModelRegistry.get(arguments.getString("model")) : ModelRegistry.getSelected(getTargetContext());
+            if (variant == null) throw new IllegalArgumentException("Unknown model " + arguments.getString("model"));
+            ModelManager.getInstance().setThreads(new InferenceThreads(getTargetContext(), variant.fileName));
+            Module module = ModelManager.getInstance().load(new File(filesDir, variant.fileName)).get();
+            BatchTranslator.Backend backend = (samples, language) -> {
+                Tensor input = Tensor.fromBlob(samples, new long[]{1, samples.capacity()});
+                synchronized (module) {
+                    return module.forward(IValue.from(input), IValue.from(language)).toStr();
+                }
+            };
+            BatchTranslator.Summary summary = new BatchTranslator(backend, Arrays.asList(languages.split(",")), workers).run(dir, output);
+            Log.d(TAG, summary.toString());
+            results.putString(REPORT_KEY_STREAMRESULT, summary + "\nResults: " + output + "\n");
+            finish(Activity.RESULT_OK, results);
+        } catch (Exception e) {
+            Log.e(TAG, "Batch translation failed", e);
+            results.putString(REPORT_KEY_STREAMRESULT, "Batch translation failed: " + e + "\n");
+            finish(Activity.RESULT_CANCELED, results);
+        }
+    }
+}
@@ -17,15 +17,28 @@ class DownloadActivity  : AppCompatActivity() {
 
     override fun onResume() {
         super.onResume()
-        if (Downloader.checkModels(this)){
-            // call Main Activity
-            binding?.downloadProgress?.setProgress(100)
-            binding?.downloadProgress?.setVisibility(View.VISIBLE)
-            binding?.buttonStart?.setVisibility(View.VISIBLE)
-            val intent = Intent(this, MainActivity::class.java)
-            startActivity(intent)
-            finish()
-        }
+        binding?.downloadButton?.setEnabled(false)
+        Downloader.checkModelsAsync(this, object : Downloader.VerifyListener {
+            override fun onProgress(percent: Int) {
+                binding?.downloadProgress?.setVisibility(View.VISIBLE)
+                binding?.downloadProgress?.setProgress(percent)
+            }
+
+            override fun onVerified(valid: Boolean) {
+                if (valid){
+                    // call Main Activity
+                    binding?.downloadProgress?.setProgress(100)
+                    binding?.downloadProgress?.setVisibility(View.VISIBLE)
+                    binding?.buttonStart?.setVisibility(View.VISIBLE)
+                    val intent = Intent(this@DownloadActivity, MainActivity::class.java)
+                    startActivity(intent)
+                    finish()
+                } else if (!Downloader.isDownloading()) {
+                    binding?.downloadProgress?.setProgress(0)
+                    binding?.downloadButton?.setEnabled(true)
+                }
+            }
+        })
     }
 
     fun download(view: View) {
@@ -0,0 +1,160 @@
+package com.seamless;
+
+import android.app.AlertDialog;
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.seamless.asr.HistoryStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Past recordings, newest first. Entries are read from HistoryStore a page at a time as the list scrolls towards
+// the end, so opening the history costs the same with ten or ten thousand recordings.
+// Tapping an entry returns its id to MainActivity, which loads the recording for re-translation.
+// HistoryStore drops the oldest recordings beyond its limits, the button below the list drops all of them.
+public class HistoryActivity extends AppCompatActivity {
+    private static final String TAG = "HistoryActivity";
+    static final String EXTRA_ENTRY = "historyEntry";
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 10;  // load the next page when this close to the end
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final List<HistoryStore.Entry> entries = new ArrayList<>();
+    private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+    private HistoryStore history;
+    private HistoryAdapter adapter;
+    private TextView tvEmpty;
+    private int nextId;          // id of the newest entry not loaded yet, -1 when all are loaded
+    private boolean loading = false;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_history);
+        tvEmpty = findViewById(R.id.tvHistoryEmpty);
+        ListView listView = findViewById(R.id.lvHistory);
+        adapter = new HistoryAdapter();
+        listView.setAdapter(adapter);
+        listView.setOnItemClickListener((parent, view, position, id) -> {
+            setResult(RESULT_OK, new Intent().putExtra(EXTRA_ENTRY, entries.get(position).id));
+            finish();
+        });
+
+        loader.execute(() -> {
+            try {
+                history = HistoryStore.getInstance(new File(getExternalFilesDir(null), "history"));
+                nextId = history.getLastId();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not open history", e);
+                nextId = -1;
+            }
+            runOnUiThread(this::loadNextPage);
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        loader.shutdownNow();
+        super.onDestroy();
+    }
+
+    public void clearHistory(View view) {
+        if (history == null) return;
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.history_clear_confirm)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> loader.execute(() -> {
+                    try {
+                        history.clear();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not clear history", e);
+                    }
+                    runOnUiThread(() -> {
+                        entries.clear();
+                        nextId = -1;
+                        adapter.notifyDataSetChanged();
+                        tvEmpty.setVisibility(View.VISIBLE);
+                    });
+                }))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    // Runs on the UI thread, appends the next page when it has been read
+    private void loadNextPage() {
+        if (loading) return;
+        if (nextId < 0) {
+            tvEmpty.setVisibility(entries.isEmpty() ? View.VISIBLE : View.GONE);
+            return;
+        }
+        loading = true;
+        int from = nextId;
+        loader.execute(() -> {
+            List<HistoryStore.Entry> page;
+            try {
+                page = history.getPage(from, PAGE_SIZE);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read history", e);
+                page = new ArrayList<>();
+            }
+            List<HistoryStore.Entry> loaded = page;
+            runOnUiThread(() -> {
+                entries.addAll(loaded);
+                nextId = loaded.isEmpty() ? -1 : loaded.get(loaded.size() - 1).id - 1;
+                loading = false;
+                adapter.notifyDataSetChanged();
+                if (nextId < 0) tvEmpty.setVisibility(entries.isEmpty() ? View.VISIBLE : View.GONE);
+            });
+        });
+    }
+
+    private class HistoryAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return entries.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return entries.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return entries.get(position).id;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView != null ? convertView : getLayoutInflater().inflate(R.layout.item_history, parent, false);
+            HistoryStore.Entry entry = entries.get(position);
+            TextView info = view.findViewById(R.id.tvHistoryInfo);
+            TextView text = view.findViewById(R.id.tvHistoryText);
+            info.setText(String.format(Locale.getDefault(), "%s  %.1f s", dateFormat.format(new Date(entry.timestamp)), entry.getDurationSeconds()));
+            StringBuilder texts = new StringBuilder();
+            for (Map.Entry<String, HistoryStore.Translation> translation : entry.getTranslations().entrySet()) {
+                if (texts.length() > 0) texts.append('\n');
+                texts.append('[').append(translation.getKey()).append("] ").append(translation.getValue().text);
+            }
+            text.setText(texts);
+            if (position >= entries.size() - PREFETCH_DISTANCE) loadNextPage();
+            return view;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.seamless;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.app.AlertDialog;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
@@ -11,6 +12,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.Button;
@@ -23,22 +25,40 @@ import androidx.activity.OnBackPressedCallback;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.seamless.asr.AudioImporter;
+import com.seamless.asr.HistoryStore;
+import com.seamless.asr.InferenceMetrics;
+import com.seamless.asr.InferenceThreads;
+import com.seamless.asr.ModelManager;
 import com.seamless.asr.RecordBuffer;
 import com.seamless.asr.Recorder;
-import org.pytorch.IValue;
-import org.pytorch.LiteModuleLoader;
-import org.pytorch.Module;
+import com.seamless.asr.StreamingTranslator;
+import com.seamless.asr.TranslationCache;
+import com.seamless.asr.TranslationScheduler;
+import com.seamless.asr.TranslationSpeaker;
+import com.seamless.utils.ModelRegistry;
 import org.pytorch.Tensor;
 import java.io.File;
-import java.nio.FloatBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
 
-    private static final String DEFAULT_MODEL_TO_USE = "unity_on_device_s2t.ptl";
+    private static final List<String> LANGUAGES = Arrays.asList("eng", "spa", "por", "hin", "rus");
+    private static final int STREAMING_SECONDS = 3;  // new audio per streaming window, plus 1 s overlap
+    private static final int REQUEST_HISTORY = 1;
 
     private EditText tvResult;
     private FloatingActionButton fabCopy;
+    private FloatingActionButton fabSpeak;
     private ImageButton btnRecord;
     private Button btnTransEng;
     private Button btnTransSpa;
@@ -46,21 +66,40 @@ public class MainActivity extends AppCompatActivity {
     private Button btnTransHin;
     private Button btnTransRus;
     private ImageButton btnInfo;
+    private ImageButton btnHistory;
     private ProgressBar processingBar;
 
     private Recorder mRecorder = null;
+    private StreamingTranslator streamingTranslator;
+    private AudioImporter audioImporter;
+    private TranslationSpeaker speaker;
+    private volatile String resultLanguage;  // language of the text shown, null for results in several languages
 
     private File sdcardDataFolder = null;
     private File selectedTfliteFile = null;
-    private Module module;
+    private ModelRegistry.Variant modelVariant;
+    private HistoryStore history;
+    private volatile int historyId = -1;  // history entry of the current recording
 
     private final Handler handler = new Handler(Looper.getMainLooper());
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static MainActivity attached;  // shows the results of translations that outlive a recreation, UI thread only
+    private static TranslationScheduler.Request translating;  // last submitted translation while it runs
 
     @SuppressLint("ClickableViewAccessibility")
 
     @Override
     protected void onDestroy(){
-        if (module != null) module.destroy();
+        // Keep the model and queued translations across activity recreation, the new activity shows their results.
+        // Free everything when the user leaves the app.
+        if (attached == this) attached = null;
+        if (streamingTranslator != null) streamingTranslator.cancel();
+        if (audioImporter != null) audioImporter.cancel();
+        if (isFinishing()) {
+            TranslationScheduler.getInstance().cancelAll();
+            if (speaker != null) speaker.shutdown();
+            ModelManager.getInstance().release();
+        }
         super.onDestroy();
     }
     @SuppressLint("ClickableViewAccessibility")
@@ -70,13 +109,36 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
 
-        // Initialize default model to use
+        // Initialize the model variant selected for this device or by the user
         sdcardDataFolder = this.getExternalFilesDir(null);
-        selectedTfliteFile = new File(sdcardDataFolder, DEFAULT_MODEL_TO_USE);
+        modelVariant = ModelRegistry.getSelected(this);
+        selectedTfliteFile = new File(sdcardDataFolder, modelVariant.fileName);
+        // Shared audio files open this activity directly, without a model they go to the download first
+        if (!selectedTfliteFile.exists()) {
+            startActivity(new Intent(this, DownloadActivity.class));
+            finish();
+            return;
+        }
+        ModelManager.getInstance().setThreads(new InferenceThreads(this, modelVariant.fileName));
+        // On the worker no other request can be running, see TranslationScheduler.submit(Supplier, ...)
+        TranslationScheduler scheduler = TranslationScheduler.getInstance();
+        RecordBuffer.setTensorsInUse(() -> !scheduler.isWorkerThread() && !scheduler.isIdle());
         initModel();
 
         btnInfo = findViewById(R.id.btnInfo);
         btnInfo.setOnClickListener(view -> startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse("https://github.com/woheller69/seamless#Donate"))));
+        btnInfo.setOnLongClickListener(view -> {
+            showModelDialog();
+            return true;
+        });
+
+        try {
+            history = HistoryStore.getInstance(new File(sdcardDataFolder, "history"));
+        } catch (IOException e) {
+            Log.e(TAG, "History not available", e);
+        }
+        btnHistory = findViewById(R.id.btnHistory);
+        btnHistory.setOnClickListener(view -> startActivityForResult(new Intent(this, HistoryActivity.class), REQUEST_HISTORY));
 
         btnRecord = findViewById(R.id.btnRecord);
 
@@ -99,64 +161,53 @@ public class MainActivity extends AppCompatActivity {
 
         btnTransEng = findViewById(R.id.btnTransEng);
         btnTransEng.setOnClickListener(v -> {
-            if (mRecorder != null && mRecorder.isInProgress()) {
-                Log.d(TAG, "Recording is in progress... stopping...");
-                stopRecording();
-            }
             resetLanguageButtons();
             btnTransEng.setBackgroundResource(R.drawable.rounded_button_background_pressed);
-            startTranslation("eng");
-
+            afterRecording(() -> startTranslation("eng"));
         });
 
         btnTransSpa = findViewById(R.id.btnTransSpa);
         btnTransSpa.setOnClickListener(v -> {
-            if (mRecorder != null && mRecorder.isInProgress()) {
-                Log.d(TAG, "Recording is in progress... stopping...");
-                stopRecording();
-            }
             resetLanguageButtons();
             btnTransSpa.setBackgroundResource(R.drawable.rounded_button_background_pressed);
-            startTranslation("spa");
-
+            afterRecording(() -> startTranslation("spa"));
         });
 
         btnTransPor = findViewById(R.id.btnTransPor);
         btnTransPor.setOnClickListener(v -> {
-            if (mRecorder != null && mRecorder.isInProgress()) {
-                Log.d(TAG, "Recording is in progress... stopping...");
-                stopRecording();
-            }
             resetLanguageButtons();
             btnTransPor.setBackgroundResource(R.drawable.rounded_button_background_pressed);
-            startTranslation("por");
-
+            afterRecording(() -> startTranslation("por"));
         });
 
         btnTransHin = findViewById(R.id.btnTransHin);
         btnTransHin.setOnClickListener(v -> {
-            if (mRecorder != null && mRecorder.isInProgress()) {
-                Log.d(TAG, "Recording is in progress... stopping...");
-                stopRecording();
-            }
             resetLanguageButtons();
             btnTransHin.setBackgroundResource(R.drawable.rounded_button_background_pressed);
-            startTranslation("hin");
-
+            afterRecording(() -> startTranslation("hin"));
         });
 
         btnTransRus = findViewById(R.id.btnTransRus);
         btnTransRus.setOnClickListener(v -> {
-            if (mRecorder != null && mRecorder.isInProgress()) {
-                Log.d(TAG, "Recording is in progress... stopping...");
-                stopRecording();
-            }
             resetLanguageButtons();
             btnTransRus.setBackgroundResource(R.drawable.rounded_button_background_pressed);
-            startTranslation("rus");
-
+            afterRecording(() -> startTranslation("rus"));
         });
 
+        // Long press on any language translates into all languages of the model
+        List<String> modelLanguages = new ArrayList<>();
+        for (String language : LANGUAGES) {
+            languageButton(language).setEnabled(modelVariant.supports(language));
+            if (modelVariant.supports(language)) modelLanguages.add(language);
+        }
+        for (Button button : new Button[]{btnTransEng, btnTransSpa, btnTransPor, btnTransHin, btnTransRus}) {
+            button.setOnLongClickListener(v -> {
+                highlightAllLanguageButtons();
+                afterRecording(() -> startTranslation(modelLanguages));
+                return true;
+            });
+        }
+
         tvResult = findViewById(R.id.tvResult);
         tvResult.setOnClickListener(view -> tvResult.setCursorVisible(true));
         fabCopy = findViewById(R.id.fabCopy);
@@ -167,14 +218,82 @@ public class MainActivity extends AppCompatActivity {
             clipboard.setPrimaryClip(clip);
         });
 
+        // Speaks the text shown, long press switches automatic speaking of new translations
+        speaker = TranslationSpeaker.getInstance(this);
+        fabSpeak = findViewById(R.id.fabSpeak);
+        fabSpeak.setOnClickListener(v -> speakResult());
+        fabSpeak.setOnLongClickListener(v -> {
+            boolean speak = !isAutoSpeak();
+            PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("speakTranslations", speak).apply();
+            Toast.makeText(this, getString(speak ? R.string.speak_auto_on : R.string.speak_auto_off), Toast.LENGTH_SHORT).show();
+            return true;
+        });
+
         processingBar = findViewById(R.id.processing_bar);
+        attached = this;
+        if (translating != null) processingBar.setIndeterminate(true);  // queued or running before a recreation
+
+        // While recording, translate into the last used language and show the partial result
+        streamingTranslator = new StreamingTranslator(new StreamingTranslator.Listener() {
+            @Override
+            public void onPartialResult(String text) {
+                runOnUiThread(() -> tvResult.setText(text));
+            }
+
+            @Override
+            public void onFinalResult(String language, String text) {
+                // Stitched from overlapping windows, so neither cached nor saved: tapping the language
+                // still translates the whole recording with full context
+                if (isAutoSpeak()) speaker.speak(language, text);  // not while recording, the microphone would hear it
+                runOnUiThread(() -> {
+                    tvResult.setText(text);
+                    resetLanguageButtons();
+                    Button button = languageButton(language);
+                    if (button != null) button.setBackgroundResource(R.drawable.rounded_button_background_pressed);
+                    processingBar.setIndeterminate(false);
+                });
+                Log.d("Output","Streaming output: " + text);
+            }
+        });
 
-        mRecorder = new Recorder(this, 60, 0);  //no realtime processing needed
+        // Audio files shared with the app are translated while they are decoded
+        audioImporter = new AudioImporter(new AudioImporter.Listener() {
+            @Override
+            public void onPartialResult(String text) {
+                String language = resultLanguage;
+                if (language != null && isAutoSpeak()) speaker.update(language, text);
+                runOnUiThread(() -> tvResult.setText(text));
+            }
+
+            @Override
+            public void onFinalResult(String language, String text) {
+                if (isAutoSpeak()) speaker.finish(language, text);
+                runOnUiThread(() -> {
+                    tvResult.setText(text);
+                    processingBar.setIndeterminate(false);
+                });
+                Log.d("Output", "Import output: " + text);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (e instanceof CancellationException) return;  // a newer request owns the UI
+                runOnUiThread(() -> {
+                    processingBar.setIndeterminate(false);
+                    Toast.makeText(MainActivity.this, getString(R.string.import_failed), Toast.LENGTH_SHORT).show();
+                });
+            }
+        });
+
+        mRecorder = new Recorder(this, 60, STREAMING_SECONDS);
         mRecorder.setListener(new Recorder.RecorderListener() {
             @Override
             public void onUpdateReceived(String message) {
                 Log.d(TAG, "Update is received, Message: " + message);
                 if (message.equals(Recorder.MSG_RECORDING)) {
+                    RecordBuffer.clear();  // the ring is overwritten next, queued translations of it find nothing
+                    resultLanguage = PreferenceManager.getDefaultSharedPreferences(MainActivity.this).getString("liveLanguage", null);
+                    streamingTranslator.start(resultLanguage);
                     handler.post(() -> tvResult.setText(""));
                     handler.post(() -> btnRecord.setBackgroundResource(R.drawable.rounded_button_background_pressed));
                 } else if (message.equals(Recorder.MSG_RECORDING_DONE)) {
@@ -183,12 +302,19 @@ public class MainActivity extends AppCompatActivity {
             }
 
             @Override
-            public void onRealtimeDataReceived(byte[] samples) {}
+            public void onRealtimeDataReceived(ByteBuffer samples) {
+                streamingTranslator.onAudio(samples);
+            }
 
             @Override
-            public void onFinalDataReceived(byte[] samples) {
+            public void onFinalDataReceived(ByteBuffer samples, int peak) {
                 // Save recorded audio data to RecordBuffer
-                RecordBuffer.setOutputBuffer(samples);
+                RecordBuffer.setOutputBuffer(samples, peak);
+                historyId = addToHistory(samples, peak);
+                if (streamingTranslator.isActive()) {
+                    handler.post(() -> processingBar.setIndeterminate(true));
+                    streamingTranslator.finish();  // only the last window is left to translate
+                }
             }
         });
         getOnBackPressedDispatcher().addCallback(new OnBackPressedCallback(true) {
@@ -200,57 +326,276 @@ public class MainActivity extends AppCompatActivity {
         });
         if (GithubStar.shouldShowStarDialog(this)) GithubStar.starDialog(this, "https://github.com/woheller69/seamless");
         checkRecordPermission();
+        if (savedInstanceState == null) handleImportIntent(getIntent());
+
+    }
+
+    private void handleImportIntent(Intent intent) {
+        if (intent == null) return;
+        Uri uri = null;
+        if (Intent.ACTION_SEND.equals(intent.getAction())) uri = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+        else if (Intent.ACTION_VIEW.equals(intent.getAction())) uri = intent.getData();
+        if (uri != null) importAudio(uri);
+    }
 
+    // Translates a shared audio file into the last used language
+    private void importAudio(Uri uri) {
+        String language = PreferenceManager.getDefaultSharedPreferences(this).getString("liveLanguage", "eng");
+        streamingTranslator.cancel();
+        TranslationScheduler.getInstance().cancelAll();
+        speaker.stop();
+        resultLanguage = language;
+        historyId = -1;
+        resetLanguageButtons();
+        Button button = languageButton(language);
+        if (button != null) button.setBackgroundResource(R.drawable.rounded_button_background_pressed);
+        tvResult.setText("");
+        processingBar.setIndeterminate(true);
+        audioImporter.start(this, uri, language);
     }
 
     private void startTranslation(String lang) {
-        handler.post(() -> tvResult.setText(""));
+        startTranslation(Collections.singletonList(lang));
+    }
+
+    private void startTranslation(List<String> langs) {
+        streamingTranslator.cancel();
+        audioImporter.cancel();
+        speaker.stop();
+        resultLanguage = langs.size() == 1 ? langs.get(0) : null;
+        if (langs.size() == 1) PreferenceManager.getDefaultSharedPreferences(this).edit().putString("liveLanguage", langs.get(0)).apply();
+        tvResult.setText("");
         processingBar.setIndeterminate(true);
-        float[] samples = RecordBuffer.getSamples();
-        if (samples.length == 0) {
+
+        // Show cached translations of this recording right away, only translate the rest
+        long fingerprint = RecordBuffer.getFingerprint();
+        int entry = historyId;
+        long submitted = System.nanoTime();
+        TranslationCache cache = TranslationCache.getInstance();
+        List<String> missing = new ArrayList<>();
+        for (String lang : langs) {
+            String cached = cache.get(fingerprint, lang);
+            if (cached != null) {
+                showResult(langs, lang, cached);
+                if (isAutoSpeak()) speaker.speak(lang, cached);
+            } else {
+                missing.add(lang);
+            }
+        }
+        Log.d(TAG, "Translation cache hits: " + cache.getHits() + ", misses: " + cache.getMisses());
+        if (missing.isEmpty()) {
+            TranslationScheduler.getInstance().cancelAll();
+            processingBar.setIndeterminate(false);
+            return;
+        }
+
+        if (RecordBuffer.getNumSamples() == 0) {
             resetLanguageButtons();
             processingBar.setIndeterminate(false);
             return;
         }
 
-        FloatBuffer inTensorBuffer = Tensor.allocateFloatBuffer(samples.length);
-        for (float val : samples)
-            inTensorBuffer.put(val);
+        // Run the model, supersedes a translation that is still queued or running.
+        // Results go to the attached activity, which is a new one if this one was recreated meanwhile.
+        TranslationSpeaker speaker = this.speaker;
+        boolean autoSpeak = isAutoSpeak();
+        // Speech segments are found and converted on the worker, once per recording into a reused buffer.
+        // Nothing is translated if another recording started or replaced this one meanwhile.
+        Supplier<List<Tensor>> segments = () -> RecordBuffer.getTensors(fingerprint);
+        translating = TranslationScheduler.getInstance().submit(segments, missing, new TranslationScheduler.Callback() {
+            @Override
+            public void onResult(TranslationScheduler.Request request, String language, String text) {
+                cache.put(fingerprint, language, text);
+                saveTranslation(entry, language, text, InferenceMetrics.millisSince(submitted));
+                if (autoSpeak) {
+                    if (langs.size() == 1) speaker.finish(language, text);
+                    else speaker.speak(language, text);
+                }
+                onAttached(activity -> activity.showResult(langs, language, text));
+                Log.d("Output","Inference output: " + text);
+            }
 
-        Tensor inTensor = Tensor.fromBlob(inTensorBuffer, new long[]{1, samples.length});  //channels 1, time steps = samples.length
+            @Override
+            public void onPartialResult(TranslationScheduler.Request request, String language, String text) {
+                if (langs.size() > 1) return;
+                if (autoSpeak) speaker.update(language, text);  // speaks while the next segments are translated
+                onAttached(activity -> activity.tvResult.setText(text));
+            }
 
-         // Run the model
-        Thread thread = new Thread(() -> {
-            Log.d("Inference","Inference started, language: " + lang);
-            if (module != null){
-                IValue outputs = module.forward(IValue.from(inTensor), IValue.from(lang));
+            @Override
+            public void onComplete(TranslationScheduler.Request request) {
+                mainHandler.post(() -> finishTranslation(request, true));
+            }
 
-                Log.d("Inference","Inference finished");
-                String text = outputs.toStr();
-                runOnUiThread(() -> {
-                    tvResult.setText(text);
-                    processingBar.setIndeterminate(false);
-                });
-                Log.d("Output","Inference output: " + text);
-            } else {
-                runOnUiThread(() -> {
-                    processingBar.setIndeterminate(false);
-                });
-                Log.d("Output","Inference output: " + "Model not ready");
+            @Override
+            public void onError(TranslationScheduler.Request request, Exception e) {
+                boolean cancelled = e instanceof CancellationException;  // then a newer request owns the UI
+                mainHandler.post(() -> finishTranslation(request, !cancelled));
+                if (!cancelled) Log.e(TAG, "Translation failed", e);
             }
+        });
 
+    }
+
+    // Runs action on the UI thread with the activity shown at that time, if any
+    private static void onAttached(Consumer<MainActivity> action) {
+        mainHandler.post(() -> {
+            MainActivity activity = attached;
+            if (activity != null) action.accept(activity);
         });
-        thread.start();
+    }
+
+    private static void finishTranslation(TranslationScheduler.Request request, boolean stopProgress) {
+        if (translating != request) return;  // superseded, the newer request owns the progress bar
+        translating = null;
+        if (stopProgress && attached != null) attached.processingBar.setIndeterminate(false);
+    }
+
+    private boolean isAutoSpeak() {
+        return PreferenceManager.getDefaultSharedPreferences(this).getBoolean("speakTranslations", false);
+    }
+
+    // Speaks the text shown, with the user's edits. Results in several languages are spoken one after another.
+    private void speakResult() {
+        speaker.stop();
+        String text = tvResult.getText().toString().trim();
+        if (text.isEmpty()) return;
+        if (resultLanguage != null) {
+            speaker.speak(resultLanguage, text);
+            return;
+        }
+        for (String block : text.split("\n\n")) {
+            int close = block.indexOf("] ");
+            if (block.startsWith("[") && close > 1) speaker.speak(block.substring(1, close), block.substring(close + 2));
+        }
+    }
 
+    private void showResult(List<String> langs, String language, String text) {
+        if (langs.size() == 1) tvResult.setText(text);
+        else tvResult.append((tvResult.getText().length() > 0 ? "\n\n" : "") + "[" + language + "] " + text);
     }
 
+    // Stores the recording in the history, returns its entry or -1. Runs on the recorder thread.
+    private int addToHistory(ByteBuffer samples, int peak) {
+        if (history == null) return -1;
+        try {
+            return history.add(samples, peak);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save recording", e);
+            return -1;
+        }
+    }
+
+    private void saveTranslation(int entry, String language, String text, double latencyMs) {
+        if (history == null || entry < 0) return;
+        try {
+            history.addTranslation(entry, language, text, latencyMs);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save translation", e);
+        }
+    }
+
+    // Makes a history entry the current recording. Its audio stays memory-mapped, so translating it again
+    // streams from disk, and its stored translations are shown and used as cache.
+    private void openHistoryEntry(int id) {
+        try {
+            HistoryStore.Entry entry = history.get(id);
+            if (entry == null) return;
+            streamingTranslator.cancel();
+            TranslationScheduler.getInstance().cancelAll();
+            speaker.stop();
+            RecordBuffer.setOutputBuffer(history.getAudio(entry), entry.peak);
+            historyId = id;
+            long fingerprint = RecordBuffer.getFingerprint();
+            List<String> langs = new ArrayList<>(entry.getTranslations().keySet());
+            resultLanguage = langs.size() == 1 ? langs.get(0) : null;
+            tvResult.setText("");
+            resetLanguageButtons();
+            for (String language : langs) {
+                String text = entry.getTranslations().get(language).text;
+                TranslationCache.getInstance().put(fingerprint, language, text);
+                showResult(langs, language, text);
+                Button button = languageButton(language);
+                if (button != null) button.setBackgroundResource(R.drawable.rounded_button_background_pressed);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open history entry", e);
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_HISTORY && resultCode == RESULT_OK && data != null && history != null) {
+            openHistoryEntry(data.getIntExtra(HistoryActivity.EXTRA_ENTRY, -1));
+        }
+    }
+
+    // Lets the user pin a model variant or go back to automatic selection, a new variant is verified or
+    // downloaded by DownloadActivity
+    private void showModelDialog() {
+        List<ModelRegistry.Variant> variants = new ArrayList<>();
+        for (ModelRegistry.Variant variant : ModelRegistry.getVariants()) {
+            if (variant.isAvailable()) variants.add(variant);
+        }
+        String[] names = new String[variants.size() + 1];
+        ModelRegistry.Variant automatic = ModelRegistry.selectForDevice(this);
+        // Until smaller variants are published the automatic choice may be too large for this device, say so
+        names[0] = getString(ModelRegistry.fitsDevice(this, automatic) ? R.string.model_automatic : R.string.model_automatic_fallback, automatic.name);
+        for (int i = 0; i < variants.size(); i++) {
+            names[i + 1] = variants.get(i).name + " (" + variants.get(i).size / 1024 / 1024 + " MB)";
+        }
+        ModelRegistry.Variant override = ModelRegistry.getOverride(this);
+        int checked = override == null ? 0 : variants.indexOf(override) + 1;
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.model)
+                .setSingleChoiceItems(names, checked, (dialog, which) -> {
+                    dialog.dismiss();
+                    ModelRegistry.setOverride(this, which == 0 ? null : variants.get(which - 1));
+                    if (!ModelRegistry.getSelected(this).fileName.equals(modelVariant.fileName)) {
+                        startActivity(new Intent(this, DownloadActivity.class));
+                        finish();
+                    }
+                })
+                .setNegativeButton(R.string.threads, (dialog, which) -> showThreadsDialog())
+                .setNeutralButton(R.string.export_metrics, (dialog, which) -> exportMetrics())
+                .show();
+    }
+
+    // Number of inference threads: tuned on this device, one per (big) core, or fixed. Automatic tunes again.
+    private void showThreadsDialog() {
+        InferenceThreads threads = new InferenceThreads(this, modelVariant.fileName);
+        int cores = Runtime.getRuntime().availableProcessors();
+        String[] names = new String[cores + 2];
+        int tuned = threads.getTuned();
+        names[0] = tuned > 0 ? getString(R.string.threads_automatic, tuned) : getString(R.string.threads_automatic_untuned);
+        names[1] = getString(R.string.threads_default);
+        for (int i = 1; i <= cores; i++) names[i + 1] = String.valueOf(i);
+        int configured = threads.getConfigured();
+        int checked = configured == InferenceThreads.AUTO ? 0 : Math.min(configured, cores) + 1;
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.threads)
+                .setSingleChoiceItems(names, checked, (dialog, which) -> {
+                    dialog.dismiss();
+                    threads.setConfigured(which == 0 ? InferenceThreads.AUTO : which == 1 ? InferenceThreads.DEFAULT : which - 1);
+                    TranslationScheduler.getInstance().runAfterCurrent(() -> ModelManager.getInstance().applyThreads());
+                })
+                .show();
+    }
+
+    // Writes timings and memory use of recent translations to metrics.json next to the model
+    private void exportMetrics() {
+        File file = new File(sdcardDataFolder, "metrics.json");
+        try {
+            InferenceMetrics.getInstance().export(file);
+            Toast.makeText(this, getString(R.string.metrics_exported, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+        } catch (Exception e) {
+            Log.e(TAG, "Metrics export failed", e);
+        }
+    }
 
     private void initModel(){
-        Thread thread = new Thread(() -> {
-            if (module == null) module = LiteModuleLoader.load(selectedTfliteFile.getAbsolutePath());
-            //if (module == null) module = LiteModuleLoader.load(selectedTfliteFile.getAbsolutePath(),null, Device.VULKAN); // no noticable increase in speed
-        });
-        thread.start();
+        ModelManager.getInstance().load(selectedTfliteFile);
     }
 
     private void checkRecordPermission() {
@@ -275,11 +620,42 @@ public class MainActivity extends AppCompatActivity {
     // Recording calls
     private void startRecording() {
         checkRecordPermission();
+        audioImporter.cancel();
+        speaker.stop();
         mRecorder.start();
     }
 
     private void stopRecording() {
-        mRecorder.stop();
+        mRecorder.stop();  // returns at once, the recording is delivered to the listener
+    }
+
+    // Runs translation on the UI thread once a recording in progress has been stopped and delivered
+    private void afterRecording(Runnable translation) {
+        if (mRecorder != null && mRecorder.isInProgress()) {
+            Log.d(TAG, "Recording is in progress... stopping...");
+            mRecorder.stop().whenComplete((audio, e) -> runOnUiThread(translation));
+        } else {
+            translation.run();
+        }
+    }
+
+    private Button languageButton(String language) {
+        switch (language) {
+            case "eng": return btnTransEng;
+            case "spa": return btnTransSpa;
+            case "por": return btnTransPor;
+            case "hin": return btnTransHin;
+            case "rus": return btnTransRus;
+            default: return null;
+        }
+    }
+
+    private void highlightAllLanguageButtons(){
+        btnTransEng.setBackgroundResource(R.drawable.rounded_button_background_pressed);
+        btnTransSpa.setBackgroundResource(R.drawable.rounded_button_background_pressed);
+        btnTransPor.setBackgroundResource(R.drawable.rounded_button_background_pressed);
+        btnTransHin.setBackgroundResource(R.drawable.rounded_button_background_pressed);
+        btnTransRus.setBackgroundResource(R.drawable.rounded_button_background_pressed);
     }
 
     public void resetLanguageButtons(){
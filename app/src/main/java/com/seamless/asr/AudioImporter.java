@@ -0,0 +1,221 @@
+package com.seamless.asr;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.List;
+
+// Translates an audio file shared with the app (WAV, OGG/Opus, AAC in M4A, anything MediaCodec decodes) while it
+// is decoded. PCM16 WAV is read directly, other formats go through MediaExtractor and MediaCodec. Decoding is the
+// first stage of an AudioPipeline, the other stages normalize, segment and translate on their own threads,
+// and decoding pauses while their queues are full, so memory stays bounded however long the file is.
+// A new translation request supersedes the queued segments and ends the import.
+public class AudioImporter {
+    private static final String TAG = "AudioImporter";
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    public interface Listener {
+        // Text of the segments translated so far
+        void onPartialResult(String text);
+        void onFinalResult(String language, String text);
+        void onError(Exception e);
+    }
+
+    private final Listener listener;
+    private Thread thread;
+    private AudioPipeline pipeline;
+
+    public AudioImporter(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void start(Context context, Uri uri, String language) {
+        cancel();
+        Context appContext = context.getApplicationContext();
+        AudioPipeline imported = new AudioPipeline(language, new AudioPipeline.Listener() {
+            @Override
+            public void onPartialResult(String text) {
+                listener.onPartialResult(text);
+            }
+
+            @Override
+            public void onFinalResult(String text) {
+                listener.onFinalResult(language, text);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                listener.onError(e);
+            }
+        });
+        pipeline = imported;
+        thread = new Thread(() -> {
+            imported.start();
+            try {
+                decode(appContext, uri, imported);
+                imported.finish();
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Import stopped");  // cancelled, or the pipeline stopped and reported why
+            } catch (Exception e) {
+                imported.fail(e);
+            }
+        }, "AudioImporter");
+        thread.start();
+    }
+
+    // Stops decoding and drops the queued segments, the listener is not called any more
+    public synchronized void cancel() {
+        if (pipeline != null) pipeline.cancel();
+        if (thread != null) thread.interrupt();
+        pipeline = null;
+        thread = null;
+    }
+
+    // Queue depth and throughput of every stage of the running or last import, empty before the first
+    public synchronized List<StageStats> getStats() {
+        return pipeline == null ? Collections.emptyList() : pipeline.getStats();
+    }
+
+    private static void decode(Context context, Uri uri, PcmSink out) throws IOException, InterruptedException {
+        try (InputStream in = new BufferedInputStream(context.getContentResolver().openInputStream(uri))) {
+            byte[] header = new byte[12];
+            in.mark(header.length);
+            int n = in.read(header);
+            in.reset();
+            if (n == header.length && WavReader.isWav(header)) {
+                boolean[] started = {false};  // the format is checked before anything is written
+                PcmSink sink = new PcmSink() {
+                    @Override
+                    public void setFormat(int sampleRate, int channels) throws InterruptedException {
+                        started[0] = true;
+                        out.setFormat(sampleRate, channels);
+                    }
+
+                    @Override
+                    public void write(ShortBuffer interleaved) throws InterruptedException {
+                        out.write(interleaved);
+                    }
+                };
+                try {
+                    WavReader.stream(in, sink);
+                    return;
+                } catch (IOException e) {
+                    if (started[0]) throw e;
+                    Log.d(TAG, "Not PCM16, decoding with MediaCodec: " + e.getMessage());  // e.g. float or 24 bit WAV
+                }
+            }
+        }
+        decodeWithMediaCodec(context, uri, out);
+    }
+
+    // Decodes the first audio track block by block. Output buffers are PCM16 in native order unless the decoder
+    // reports float output, which is converted to PCM16, other encodings are rejected.
+    private static void decodeWithMediaCodec(Context context, Uri uri, PcmSink out) throws IOException, InterruptedException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(context, uri, null);
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat track = extractor.getTrackFormat(i);
+                String mime = track.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = track;
+                    break;
+                }
+            }
+            if (format == null) throw new IOException("No audio track in " + uri);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            PcmConverter converter = new PcmConverter();
+            ShortBuffer converted = ShortBuffer.allocate(0);
+            boolean inputDone = false;
+            boolean formatSet = false;
+            int encoding = AudioFormat.ENCODING_PCM_16BIT;
+            while (true) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        int size = extractor.readSampleData(codec.getInputBuffer(inputIndex), 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int outputIndex = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat output = codec.getOutputFormat();
+                    encoding = getPcmEncoding(output);
+                    out.setFormat(output.getInteger(MediaFormat.KEY_SAMPLE_RATE), output.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+                    formatSet = true;
+                } else if (outputIndex >= 0) {
+                    if (!formatSet) {
+                        encoding = getPcmEncoding(codec.getOutputFormat());
+                        out.setFormat(format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+                        formatSet = true;
+                    }
+                    if (info.size > 0) {
+                        ByteBuffer pcm = codec.getOutputBuffer(outputIndex);
+                        pcm.limit(info.offset + info.size);
+                        pcm.position(info.offset);
+                        ByteBuffer samples = pcm.slice().order(ByteOrder.nativeOrder());
+                        if (encoding == AudioFormat.ENCODING_PCM_FLOAT) {
+                            FloatBuffer floats = samples.asFloatBuffer();
+                            if (converted.capacity() < floats.remaining()) converted = ShortBuffer.allocate(floats.remaining());
+                            converted.clear();
+                            converter.toPcm16(floats, converted);
+                            converted.flip();
+                            out.write(converted);
+                        } else {
+                            out.write(samples.asShortBuffer());
+                        }
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+                }
+            }
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Decoder not started", e);
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    // PCM16 or float, decoders that do not report an encoding output PCM16
+    private static int getPcmEncoding(MediaFormat format) throws IOException {
+        if (!format.containsKey(MediaFormat.KEY_PCM_ENCODING)) return AudioFormat.ENCODING_PCM_16BIT;
+        int encoding = format.getInteger(MediaFormat.KEY_PCM_ENCODING);
+        if (encoding != AudioFormat.ENCODING_PCM_16BIT && encoding != AudioFormat.ENCODING_PCM_FLOAT) {
+            throw new IOException("Unsupported decoder output encoding " + encoding + ", expected PCM16 or float");
+        }
+        return encoding;
+    }
+}
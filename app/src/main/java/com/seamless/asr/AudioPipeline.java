@@ -0,0 +1,367 @@
+package com.seamless.asr;
+
+import android.util.Log;
+
+import org.pytorch.Tensor;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Translates audio of any length in four stages connected by bounded queues, each stage on its own thread:
+// decode (whoever calls write(), e.g. a file decoder) -> normalize (downmix, resample to 16 kHz)
+// -> segment (VAD, level normalization per segment) -> inference (forward() through TranslationScheduler).
+// A stage works on the next block while the one after it is busy with the previous block, and a full queue blocks
+// the stage before it, so memory stays the same however long the audio is. Decoded and normalized blocks come from
+// fixed pools and go back after use, segments are allocated when found. getStats() shows every stage's queue and throughput.
+public class AudioPipeline implements PcmSink {
+    private static final String TAG = "AudioPipeline";
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_SAMPLES = 16384;  // PCM16 per decoded or normalized block, about 1 s at 16 kHz
+    private static final int BLOCK_QUEUE = 4;         // blocks waiting between decode, normalize and segment
+    private static final int SEGMENT_QUEUE = 2;       // segments waiting for the model
+    private static final long POLL_MS = 100;          // the source checks this often whether the pipeline stopped
+
+    public interface Listener {
+        // Text of the segments translated so far
+        void onPartialResult(String text);
+        void onFinalResult(String text);
+        // Called at most once and never after cancel(), with a CancellationException if a newer request superseded it
+        void onError(Exception e);
+    }
+
+    private static class Stage {
+        final String name;
+        final BlockingQueue<?> input;
+        final int capacity;
+        private long items;
+        private double audioSeconds;
+        private long busyNanos;
+        private long blockedNanos;
+        private int maxQueued;
+
+        Stage(String name, BlockingQueue<?> input, int capacity) {
+            this.name = name;
+            this.input = input;
+            this.capacity = capacity;
+        }
+
+        synchronized void count(long items, double audioSeconds, long busyNanos) {
+            this.items += items;
+            this.audioSeconds += audioSeconds;
+            this.busyNanos += busyNanos;
+            if (input != null) maxQueued = Math.max(maxQueued, input.size());
+        }
+
+        synchronized void blocked(long nanos) {
+            blockedNanos += nanos;
+        }
+
+        synchronized StageStats snapshot() {
+            return new StageStats(name, input == null ? 0 : input.size(), maxQueued, capacity, items, audioSeconds, busyNanos / 1e6, blockedNanos / 1e6);
+        }
+    }
+
+    // PCM16 of the source's format before normalize, 16 kHz mono after it. The last block of a stream is empty.
+    private static class Block {
+        final ShortBuffer pcm = ShortBuffer.allocate(BLOCK_SAMPLES);
+        int sampleRate;
+        int channels;
+        boolean last;
+    }
+
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    private static final FloatBuffer END = FloatBuffer.allocate(0);  // marks the end of the segment queue
+
+    private final String language;
+    private final Listener listener;
+    private final BlockingQueue<Block> freeDecoded = new ArrayBlockingQueue<>(BLOCK_QUEUE + 2);
+    private final BlockingQueue<Block> decoded = new ArrayBlockingQueue<>(BLOCK_QUEUE);
+    private final BlockingQueue<Block> freeNormalized = new ArrayBlockingQueue<>(BLOCK_QUEUE + 2);
+    private final BlockingQueue<Block> normalized = new ArrayBlockingQueue<>(BLOCK_QUEUE);
+    private final BlockingQueue<FloatBuffer> segments = new ArrayBlockingQueue<>(SEGMENT_QUEUE);
+    private final Stage decode = new Stage("decode", null, 0);
+    private final Stage normalize = new Stage("normalize", decoded, BLOCK_QUEUE);
+    private final Stage segment = new Stage("segment", normalized, BLOCK_QUEUE);
+    private final Stage inference = new Stage("inference", segments, SEGMENT_QUEUE);
+    private final List<Thread> threads = new ArrayList<>();
+    private final PcmConverter converter = new PcmConverter();  // used by the segment stage only
+    private volatile boolean stopped = false;
+    private volatile TranslationScheduler.Request current;      // segment being translated
+    private long startNanos;
+    private long lastWriteNanos;  // end of the last write(), decoding happened since
+    private int sampleRate;
+    private int channels;
+
+    public AudioPipeline(String language, Listener listener) {
+        this.language = language;
+        this.listener = listener;
+        for (int i = 0; i < BLOCK_QUEUE + 2; i++) {
+            freeDecoded.add(new Block());
+            freeNormalized.add(new Block());
+        }
+    }
+
+    public void start() {
+        startNanos = lastWriteNanos = System.nanoTime();
+        threads.add(stage("normalize", this::runNormalize));
+        threads.add(stage("segment", this::runSegment));
+        threads.add(stage("inference", this::runInference));
+        for (Thread thread : threads) thread.start();
+    }
+
+    @Override
+    public void setFormat(int sampleRate, int channels) {
+        if (channels < 1) throw new IllegalArgumentException("Invalid channel count " + channels);
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    // Copies whole frames into pooled blocks for the normalize stage, blocks while its queue is full
+    @Override
+    public void write(ShortBuffer interleaved) throws InterruptedException {
+        if (channels == 0) throw new IllegalStateException("No format set");
+        long start = System.nanoTime();
+        long waited = 0;
+        int frames = 0;
+        while (interleaved.remaining() >= channels) {
+            long waitStart = System.nanoTime();
+            Block block = poll(freeDecoded);
+            waited += System.nanoTime() - waitStart;
+            block.pcm.clear();
+            int n = Math.min(block.pcm.remaining(), interleaved.remaining()) / channels * channels;
+            ShortBuffer part = interleaved.duplicate();
+            part.limit(part.position() + n);
+            block.pcm.put(part);
+            interleaved.position(part.position());
+            block.pcm.flip();
+            block.sampleRate = sampleRate;
+            block.channels = channels;
+            block.last = false;
+            frames += n / channels;
+            waitStart = System.nanoTime();
+            offer(decoded, block);
+            waited += System.nanoTime() - waitStart;
+        }
+        long end = System.nanoTime();
+        decode.count(1, (double) frames / sampleRate, end - lastWriteNanos - waited);
+        decode.blocked(waited);
+        lastWriteNanos = end;
+    }
+
+    // No more audio, the final result follows when the last segment is translated
+    public void finish() throws InterruptedException {
+        Block block = poll(freeDecoded);
+        block.pcm.limit(0);
+        block.last = true;
+        offer(decoded, block);
+    }
+
+    // Stops all stages and drops the queued audio, the listener is not called any more
+    public synchronized void cancel() {
+        stop();
+    }
+
+    // Ends the pipeline with an error of the source, e.g. an unreadable file
+    public synchronized void fail(Exception e) {
+        if (stopped) return;
+        stop();
+        Log.e(TAG, "Pipeline failed", e);
+        listener.onError(e);
+    }
+
+    public List<StageStats> getStats() {
+        List<StageStats> stats = new ArrayList<>();
+        for (Stage stage : new Stage[]{decode, normalize, segment, inference}) stats.add(stage.snapshot());
+        return stats;
+    }
+
+    private void stop() {
+        stopped = true;
+        TranslationScheduler.Request request = current;
+        if (request != null) request.cancel();
+        for (Thread thread : threads) thread.interrupt();
+    }
+
+    private Thread stage(String name, StageBody body) {
+        return new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                fail(new CancellationException("Pipeline interrupted"));  // nothing is reported after cancel()
+            } catch (Exception e) {
+                fail(e);
+            }
+        }, "AudioPipeline-" + name);
+    }
+
+    private void runNormalize() throws InterruptedException {
+        PcmNormalizer normalizer = new PcmNormalizer();
+        Block out = null;
+        while (true) {
+            Block in = decoded.take();
+            long start = System.nanoTime();
+            long waited = 0;
+            int frames = in.last ? 0 : in.pcm.remaining() / in.channels;
+            // Samples still in the resampler go out before a new format or the end
+            if ((in.last || !normalizer.isFormat(in.sampleRate, in.channels)) && normalizer.getMaxFlush() > 0) {
+                if (out == null) out = takeNormalized();
+                if (out.pcm.remaining() < normalizer.getMaxFlush()) {
+                    waited += send(out);
+                    out = takeNormalized();
+                }
+                normalizer.flush(out.pcm);
+            }
+            if (in.last) {
+                if (out != null) waited += send(out);
+                freeDecoded.put(in);
+                Block last = takeNormalized();
+                last.last = true;
+                waited += send(last);
+                normalize.count(1, 0, System.nanoTime() - start - waited);
+                normalize.blocked(waited);
+                return;
+            }
+            if (!normalizer.isFormat(in.sampleRate, in.channels)) normalizer.setFormat(in.sampleRate, in.channels);
+            while (in.pcm.remaining() >= in.channels) {
+                if (out == null) out = takeNormalized();
+                int before = in.pcm.position();
+                normalizer.process(in.pcm, out.pcm);
+                if (in.pcm.position() == before) {  // out is full
+                    waited += send(out);
+                    out = null;
+                }
+            }
+            freeDecoded.put(in);
+            // Pass on what was converted instead of waiting for a full block, so segmenting starts early
+            if (out != null && out.pcm.position() > 0) {
+                waited += send(out);
+                out = null;
+            }
+            normalize.count(1, (double) frames / in.sampleRate, System.nanoTime() - start - waited);
+            normalize.blocked(waited);
+        }
+    }
+
+    private Block takeNormalized() throws InterruptedException {
+        Block block = freeNormalized.take();
+        block.pcm.clear();
+        block.last = false;
+        return block;
+    }
+
+    // Queues a normalized block for the segment stage, returns the time it waited for room
+    private long send(Block block) throws InterruptedException {
+        long start = System.nanoTime();
+        block.pcm.flip();
+        normalized.put(block);
+        return System.nanoTime() - start;
+    }
+
+    private void runSegment() throws InterruptedException {
+        long[] waited = new long[1];
+        StreamSegmenter segmenter = new StreamSegmenter(pcm -> {
+            FloatBuffer samples = Tensor.allocateFloatBuffer(pcm.remaining());
+            converter.normalize(pcm, samples, PcmConverter.peak(pcm));
+            samples.rewind();
+            long start = System.nanoTime();
+            segments.put(samples);
+            waited[0] += System.nanoTime() - start;
+        });
+        while (true) {
+            Block in = normalized.take();
+            long start = System.nanoTime();
+            waited[0] = 0;
+            int samples = in.pcm.remaining();
+            if (in.last) {
+                segmenter.finish();
+                freeNormalized.put(in);
+                segment.count(1, 0, System.nanoTime() - start - waited[0]);
+                segment.blocked(waited[0]);
+                segments.put(END);
+                return;
+            }
+            segmenter.write(in.pcm);
+            freeNormalized.put(in);
+            segment.count(1, (double) samples / SAMPLE_RATE, System.nanoTime() - start - waited[0]);
+            segment.blocked(waited[0]);
+        }
+    }
+
+    private void runInference() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            FloatBuffer samples = segments.take();
+            if (samples == END) break;
+            long start = System.nanoTime();
+            String segmentText = translate(samples).trim();
+            inference.count(1, (double) samples.capacity() / SAMPLE_RATE, System.nanoTime() - start);
+            if (text.length() > 0 && !segmentText.isEmpty()) text.append(' ');
+            text.append(segmentText);
+            Log.d(TAG, inference.snapshot().toString());
+            synchronized (this) {
+                if (stopped) return;
+                listener.onPartialResult(text.toString());
+            }
+        }
+        List<StageStats> stats = getStats();
+        for (StageStats stage : stats) Log.d(TAG, stage.toString());
+        Log.d(TAG, "Translated in " + Math.round(InferenceMetrics.millisSince(startNanos)) + " ms");
+        InferenceMetrics.getInstance().recordPipeline(stats);
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            listener.onFinalResult(text.toString());
+        }
+    }
+
+    // Queues the segment behind earlier requests and waits for its text
+    private String translate(FloatBuffer samples) throws Exception {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Tensor tensor = Tensor.fromBlob(samples, new long[]{1, samples.capacity()});
+        current = TranslationScheduler.getInstance().enqueue(tensor, language, new TranslationScheduler.Callback() {
+            @Override
+            public void onResult(TranslationScheduler.Request request, String lang, String segmentText) {
+                result.complete(segmentText);
+            }
+
+            @Override
+            public void onError(TranslationScheduler.Request request, Exception e) {
+                result.completeExceptionally(e);  // superseded by a new request or the model failed
+            }
+        });
+        if (stopped) current.cancel();
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            current = null;
+        }
+    }
+
+    // Queue operations of the source thread, which the pipeline cannot interrupt
+    private <T> T poll(BlockingQueue<T> queue) throws InterruptedException {
+        while (true) {
+            if (stopped) throw new InterruptedException("Pipeline stopped");
+            T item = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+            if (item != null) return item;
+        }
+    }
+
+    private <T> void offer(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (stopped) throw new InterruptedException("Pipeline stopped");
+        }
+    }
+}
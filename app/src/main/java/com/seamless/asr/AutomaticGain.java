@@ -0,0 +1,127 @@
+package com.seamless.asr;
+
+import java.nio.FloatBuffer;
+
+// Automatic gain control with a look-ahead limiter, for audio whose peak is not known yet.
+// The gain follows the mean RMS of the last WINDOW_FRAMES frames louder than the gate, so pauses do not pump up
+// the noise, and a frame counts at most OUTLIER times the current level, so a click barely moves it.
+// Output is delayed by LOOKAHEAD_FRAMES: the gain of a frame is also limited by the peaks of the frames after it,
+// so a loud onset or a click is caught before it clips and the gain ramps down smoothly instead of jumping.
+// Everything is computed per FRAME in one pass over fixed arrays. No Android dependencies.
+public class AutomaticGain implements GainStage {
+    private static final int FRAME = 256;             // 16 ms at 16 kHz, the gain is updated per frame
+    private static final int LOOKAHEAD_FRAMES = 8;    // 128 ms
+    private static final int SLOTS = LOOKAHEAD_FRAMES + 1;
+    private static final int WINDOW_FRAMES = 32;      // 512 ms of speech
+    private static final float TARGET_RMS = 0.1f;     // -20 dBFS, about where peak normalized speech ends up
+    private static final float GATE_RMS = 0.003f;     // -50 dBFS, quieter frames do not change the level
+    private static final float OUTLIER = 4;
+    private static final float MIN_GAIN = 0.1f;
+    private static final float MAX_GAIN = 30;         // +30 dB
+    private static final float CEILING = 0.99f;
+    private static final float ATTACK = 0.5f;         // share of a gain decrease applied per frame
+    private static final float RELEASE = 0.05f;       // share of a gain increase applied per frame
+
+    private final float[] delay = new float[SLOTS * FRAME];  // ring of the frames not output yet
+    private final float[] peaks = new float[SLOTS];
+    private final float[] levels = new float[WINDOW_FRAMES];  // RMS of the last frames above the gate
+    private int oldest;      // slot of the oldest frame not output yet
+    private int frames;      // complete frames from oldest on
+    private int fill;        // samples in the frame after them
+    private int levelCount;
+    private int levelNext;
+    private float levelSum;
+    private float agcGain;
+    private float gain;      // applied at the end of the last output frame
+    private boolean leveled;
+    private boolean started;
+
+    public AutomaticGain() {
+        reset(-1);
+    }
+
+    @Override
+    public void reset(int peak) {
+        oldest = frames = fill = 0;
+        levelCount = levelNext = 0;
+        levelSum = 0;
+        agcGain = gain = 1;
+        leveled = started = false;
+    }
+
+    @Override
+    public int getLatency() {
+        return SLOTS * FRAME - 1;
+    }
+
+    @Override
+    public void process(FloatBuffer in, FloatBuffer out) {
+        while (in.hasRemaining()) {
+            int slot = (oldest + frames) % SLOTS;
+            int n = Math.min(FRAME - fill, in.remaining());
+            in.get(delay, slot * FRAME + fill, n);
+            fill += n;
+            if (fill < FRAME) return;
+            analyze(slot, FRAME);
+            frames++;
+            fill = 0;
+            if (frames == SLOTS) emit(out, FRAME);
+        }
+    }
+
+    @Override
+    public void flush(FloatBuffer out) {
+        int last = fill;
+        if (last > 0) {
+            analyze((oldest + frames) % SLOTS, last);
+            frames++;
+            fill = 0;
+        }
+        while (frames > 0) emit(out, frames == 1 && last > 0 ? last : FRAME);
+    }
+
+    private void analyze(int slot, int count) {
+        int base = slot * FRAME;
+        float peak = 0;
+        float sum = 0;
+        for (int i = base; i < base + count; i++) {
+            float value = delay[i];
+            sum += value * value;
+            peak = Math.max(peak, Math.abs(value));
+        }
+        peaks[slot] = peak;
+        float rms = (float) Math.sqrt(sum / count);
+        if (rms < GATE_RMS) return;
+        if (levelCount > 0) rms = Math.min(rms, OUTLIER * levelSum / levelCount);
+        if (levelCount == WINDOW_FRAMES) levelSum -= levels[levelNext];
+        else levelCount++;
+        levels[levelNext] = rms;
+        levelSum += rms;
+        levelNext = (levelNext + 1) % WINDOW_FRAMES;
+    }
+
+    // Outputs the oldest frame with its gain ramped from the gain of the previous frame
+    private void emit(FloatBuffer out, int count) {
+        if (levelCount > 0) {
+            float desired = Math.max(MIN_GAIN, Math.min(MAX_GAIN, TARGET_RMS * levelCount / levelSum));
+            // The first speech is known LOOKAHEAD_FRAMES ahead, so its gain is set at once
+            agcGain = leveled ? agcGain + (desired - agcGain) * (desired < agcGain ? ATTACK : RELEASE) : desired;
+            leveled = true;
+        }
+        float peak = 0;
+        for (int i = 0; i < frames; i++) peak = Math.max(peak, peaks[(oldest + i) % SLOTS]);
+        float target = peak > 0 ? Math.min(agcGain, CEILING / peak) : agcGain;
+        if (!started) {
+            gain = target;
+            started = true;
+        }
+        // The previous frame's gain was limited by this frame's peak too, so the ramp stays below the ceiling
+        float step = (target - gain) / count;
+        int base = oldest * FRAME;
+        for (int i = 0; i < count; i++) delay[base + i] *= gain + step * (i + 1);
+        out.put(delay, base, count);
+        gain = target;
+        oldest = (oldest + 1) % SLOTS;
+        frames--;
+    }
+}
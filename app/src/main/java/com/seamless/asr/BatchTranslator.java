@@ -0,0 +1,212 @@
+package com.seamless.asr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Translates a directory of 16 kHz WAV or raw PCM files into several languages and writes one JSON line per file
+// with the texts and timings. Files are read and preprocessed like recordings (VAD, level normalization) by a pool
+// of workers. The model is behind Backend, so the same job runs on the device and with a stand-in on the host.
+// No Android dependencies.
+public class BatchTranslator {
+
+    public interface Backend {
+        // samples is a direct, native order buffer whose capacity is the number of samples of one speech segment
+        String translate(FloatBuffer samples, String language) throws Exception;
+    }
+
+    public static class Summary {
+        public final int files;
+        public final int failed;
+        public final double audioSeconds;
+        public final double wallSeconds;
+
+        Summary(int files, int failed, double audioSeconds, double wallSeconds) {
+            this.files = files;
+            this.failed = failed;
+            this.audioSeconds = audioSeconds;
+            this.wallSeconds = wallSeconds;
+        }
+
+        // Seconds of audio translated per second of wall time, into all languages
+        public double getThroughput() {
+            return wallSeconds > 0 ? audioSeconds / wallSeconds : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d files, %d failed, %.1f s audio in %.1f s, throughput %.2f x real time",
+                    files, failed, audioSeconds, wallSeconds, getThroughput());
+        }
+    }
+
+    private final Backend backend;
+    private final List<String> languages;
+    private final int workers;
+    private final ThreadLocal<PcmConverter> converters = ThreadLocal.withInitial(PcmConverter::new);
+
+    public BatchTranslator(Backend backend, List<String> languages, int workers) {
+        this.backend = backend;
+        this.languages = new ArrayList<>(languages);
+        this.workers = Math.max(1, workers);
+    }
+
+    // .wav and .pcm files of dir in name order
+    public static List<File> listAudioFiles(File dir) throws IOException {
+        File[] files = dir.listFiles((d, name) -> {
+            String lower = name.toLowerCase(Locale.ROOT);
+            return lower.endsWith(".wav") || lower.endsWith(".pcm");
+        });
+        if (files == null) throw new IOException("Not a directory: " + dir);
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    // Translates all audio files of dir, lines are written to output in the order the files finish
+    public Summary run(File dir, File output) throws IOException, InterruptedException {
+        List<File> files = listAudioFiles(dir);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        AtomicInteger failed = new AtomicInteger();
+        double[] audioSeconds = new double[files.size()];
+        long start = System.nanoTime();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8))) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                int index = i;
+                tasks.add(pool.submit(() -> {
+                    String line;
+                    try {
+                        line = translate(files.get(index), audioSeconds, index);
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        line = "{\"file\":" + quote(files.get(index).getName()) + ",\"error\":" + quote(String.valueOf(e)) + "}";
+                    }
+                    synchronized (writer) {
+                        writer.write(line);
+                        writer.write('\n');
+                        writer.flush();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Could not write " + output, e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        double total = 0;
+        for (double seconds : audioSeconds) total += seconds;
+        return new Summary(files.size(), failed.get(), total, (System.nanoTime() - start) / 1e9);
+    }
+
+    // One JSON line with the translation into every language and the timings of each stage
+    private String translate(File file, double[] audioSeconds, int index) throws Exception {
+        long start = System.nanoTime();
+        ShortBuffer pcm = WavReader.read(file);
+        double readMs = millisSince(start);
+        int numSamples = pcm.remaining();
+        audioSeconds[index] = (double) numSamples / WavReader.SAMPLE_RATE;
+
+        // Same preprocessing as RecordBuffer.getTensors(), every segment gets its own direct view
+        long preprocessStart = System.nanoTime();
+        List<VadSegmenter.Segment> segments = VadSegmenter.segmentOrWhole(pcm);
+        int speechSamples = 0;
+        for (VadSegmenter.Segment segment : segments) speechSamples += segment.length();
+        FloatBuffer storage = ByteBuffer.allocateDirect(speechSamples * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        int peak = PcmConverter.peak(pcm);
+        List<FloatBuffer> inputs = new ArrayList<>(segments.size());
+        int offset = 0;
+        for (VadSegmenter.Segment segment : segments) {
+            storage.limit(offset + segment.length());
+            storage.position(offset);
+            FloatBuffer data = storage.slice();
+            ShortBuffer part = pcm.duplicate();
+            part.limit(segment.end);
+            part.position(segment.start);
+            converters.get().normalize(part, data, peak);
+            data.rewind();
+            inputs.add(data);
+            offset += segment.length();
+        }
+        double preprocessMs = millisSince(preprocessStart);
+
+        StringBuilder texts = new StringBuilder();
+        StringBuilder forwardMs = new StringBuilder();
+        for (String language : languages) {
+            long forwardStart = System.nanoTime();
+            StringBuilder text = new StringBuilder();
+            for (FloatBuffer input : inputs) {
+                String segmentText = backend.translate(input.duplicate(), language).trim();
+                if (text.length() > 0 && !segmentText.isEmpty()) text.append(' ');
+                text.append(segmentText);
+            }
+            if (texts.length() > 0) {
+                texts.append(',');
+                forwardMs.append(',');
+            }
+            texts.append(quote(language)).append(':').append(quote(text.toString()));
+            forwardMs.append(quote(language)).append(':').append(format(millisSince(forwardStart)));
+        }
+        double totalMs = millisSince(start);
+
+        return "{\"file\":" + quote(file.getName())
+                + ",\"audio_s\":" + format(audioSeconds[index])
+                + ",\"speech_s\":" + format((double) speechSamples / WavReader.SAMPLE_RATE)
+                + ",\"segments\":" + segments.size()
+                + ",\"translations\":{" + texts + "}"
+                + ",\"read_ms\":" + format(readMs)
+                + ",\"preprocess_ms\":" + format(preprocessMs)
+                + ",\"forward_ms\":{" + forwardMs + "}"
+                + ",\"total_ms\":" + format(totalMs)
+                + ",\"rtf\":" + format(totalMs > 0 ? audioSeconds[index] * 1000 / totalMs : 0)
+                + "}";
+    }
+
+    private static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    static String quote(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) json.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    else json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.seamless.asr;
+
+import java.nio.FloatBuffer;
+
+// Level normalization of 16 kHz mono floats in [-1, 1), applied block by block as the audio arrives.
+// An instance keeps the state of one stream and allocates nothing while processing, reset() starts the next stream.
+public interface GainStage {
+    interface Factory {
+        GainStage create();
+    }
+
+    Factory AUTOMATIC = AutomaticGain::new;
+    Factory PEAK = PeakGain::new;
+
+    // Starts a new stream. peak is its largest absolute PCM16 value if known in advance, or -1.
+    void reset(int peak);
+
+    // Largest number of samples held back between process() and flush()
+    int getLatency();
+
+    // Processes in between position and limit and appends the output that is ready to out. in and out may be views
+    // of the same storage, for processing in place, as long as out's position is not ahead of in's.
+    void process(FloatBuffer in, FloatBuffer out);
+
+    // Appends the samples still held back, call once after the last process() of a stream
+    void flush(FloatBuffer out);
+}
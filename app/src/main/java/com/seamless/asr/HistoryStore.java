@@ -0,0 +1,311 @@
+package com.seamless.asr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Recordings and their translations, kept on disk across app restarts. Three append-only files:
+// audio.pcm holds the PCM16 of every recording trimmed to its speech, index.bin a fixed size record per recording
+// (time, position and length of the audio, position of its texts), texts.bin the translations of a recording.
+// Fixed size index records let the history be read a page at a time however long it gets, and the audio of an
+// entry is memory-mapped, so re-translating it reads from the page cache instead of the Java heap.
+// A record is only added after its audio is written and texts are written before the index points to them,
+// so a crash leaves at most unreferenced bytes behind.
+// The history keeps at most MAX_ENTRIES recordings and MAX_AUDIO_BYTES of audio. When add() goes beyond either,
+// the oldest entries are dropped until a quarter of the room is free again: the newest entries are copied into
+// new audio and texts files, and renaming the new index over the old one switches to them in one step.
+// The data files are named after the id of their first entry, so ids stay unique and the old files stay valid
+// for audio that is still mapped. clear() drops all entries the same way.
+public class HistoryStore {
+    private static final int MAGIC = 0x53484931;  // "SHI1"
+    private static final int HEADER = 8;          // magic, id of the first entry
+    private static final int RECORD = 40;
+    static final int MAX_ENTRIES = 1000;
+    static final long MAX_AUDIO_BYTES = 256L * 1024 * 1024;  // about 2 hours and 20 minutes of speech
+    private static HistoryStore instance;
+
+    public static class Translation {
+        public final String text;
+        public final float latencyMs;  // from the request to the result, -1 if not measured
+
+        Translation(String text, float latencyMs) {
+            this.text = text;
+            this.latencyMs = latencyMs;
+        }
+    }
+
+    public static class Entry {
+        public final int id;
+        public final long timestamp;
+        public final int samples;
+        public final int peak;
+        private final long audioOffset;
+        private final Map<String, Translation> translations;
+
+        Entry(int id, long timestamp, long audioOffset, int samples, int peak, Map<String, Translation> translations) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.audioOffset = audioOffset;
+            this.samples = samples;
+            this.peak = peak;
+            this.translations = Collections.unmodifiableMap(translations);
+        }
+
+        public double getDurationSeconds() {
+            return (double) samples / WavReader.SAMPLE_RATE;
+        }
+
+        // Language to translation, in the order they were added
+        public Map<String, Translation> getTranslations() {
+            return translations;
+        }
+    }
+
+    private final File dir;
+    private FileChannel index;
+    private FileChannel audio;
+    private FileChannel texts;
+    private int firstId;  // id of the entry at index position 0
+    int maxEntries = MAX_ENTRIES;
+    long maxAudioBytes = MAX_AUDIO_BYTES;
+
+    public static synchronized HistoryStore getInstance(File dir) throws IOException {
+        if (instance == null) instance = new HistoryStore(dir);
+        return instance;
+    }
+
+    HistoryStore(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+        this.dir = dir;
+        open();
+    }
+
+    private void open() throws IOException {
+        index = new RandomAccessFile(new File(dir, "index.bin"), "rw").getChannel();
+        if (index.size() < HEADER) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(0).flip();
+            writeFully(index, header, 0);
+            firstId = 0;
+        } else {
+            ByteBuffer header = readFully(index, HEADER, 0);
+            if (header.getInt() != MAGIC) throw new IOException("Unknown history format in " + dir);
+            firstId = header.getInt();
+        }
+        audio = new RandomAccessFile(audioFile(firstId), "rw").getChannel();
+        texts = new RandomAccessFile(textsFile(firstId), "rw").getChannel();
+        // Files of an interrupted or replaced trim are not referenced by the index
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.getName().equals("index.bin") && !file.equals(audioFile(firstId)) && !file.equals(textsFile(firstId))) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    // The files of the first store keep their original names
+    private File audioFile(int firstId) {
+        return new File(dir, firstId == 0 ? "audio.pcm" : "audio-" + firstId + ".pcm");
+    }
+
+    private File textsFile(int firstId) {
+        return new File(dir, firstId == 0 ? "texts.bin" : "texts-" + firstId + ".bin");
+    }
+
+    // Number of recordings, a record cut short by a crash is not counted
+    public synchronized int size() throws IOException {
+        return (int) ((index.size() - HEADER) / RECORD);
+    }
+
+    // Id of the newest recording, ids of the older ones count down to the oldest one that is kept
+    public synchronized int getLastId() throws IOException {
+        return firstId + size() - 1;
+    }
+
+    // Appends a recording in native order, trimmed to its speech, and returns its id or -1 if there is no audio
+    public synchronized int add(ByteBuffer pcm, int peak) throws IOException {
+        ByteBuffer data = pcm.duplicate().order(ByteOrder.nativeOrder());
+        List<VadSegmenter.Segment> speech = VadSegmenter.segmentOrWhole(data.asShortBuffer());
+        if (speech.isEmpty()) return -1;
+        int start = speech.get(0).start;
+        int end = speech.get(speech.size() - 1).end;
+        data.limit(data.position() + end * 2);
+        data.position(data.position() + start * 2);
+
+        long audioOffset = audio.size();
+        writeFully(audio, data, audioOffset);  // Android is little endian, so native order is the file order
+        int position = size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.putLong(System.currentTimeMillis()).putLong(audioOffset).putInt(end - start).putInt(peak)
+                .putLong(-1).putInt(0).putInt(0).flip();
+        writeFully(index, record, HEADER + (long) position * RECORD);
+        int id = firstId + position;
+        if (position + 1 > maxEntries || audio.size() > maxAudioBytes) trim();
+        return id;
+    }
+
+    // Drops all recordings, their ids are not used again
+    public synchronized void clear() throws IOException {
+        int count = size();
+        if (count > 0) rewrite(count);
+    }
+
+    // Drops the oldest entries until at most three quarters of maxEntries and maxAudioBytes are used
+    private void trim() throws IOException {
+        int count = size();
+        int keep = 0;
+        long keptBytes = 0;
+        for (int position = count - 1; position >= 0 && keep < maxEntries * 3 / 4; position--) {
+            long bytes = readFully(index, RECORD, HEADER + (long) position * RECORD).getInt(16) * 2L;
+            if (keptBytes + bytes > maxAudioBytes * 3 / 4) break;
+            keptBytes += bytes;
+            keep++;
+        }
+        rewrite(Math.max(1, count - keep));  // at least one, the new files must not have the names of the current ones
+    }
+
+    // Copies the entries from index position drop on into new files and switches to them, drop must be positive
+    private void rewrite(int drop) throws IOException {
+        int count = size();
+        int newFirstId = firstId + drop;
+        File newIndex = new File(dir, "index.bin.tmp");
+        try (FileChannel toIndex = new RandomAccessFile(newIndex, "rw").getChannel();
+             FileChannel toAudio = new RandomAccessFile(audioFile(newFirstId), "rw").getChannel();
+             FileChannel toTexts = new RandomAccessFile(textsFile(newFirstId), "rw").getChannel()) {
+            toIndex.truncate(0);
+            toAudio.truncate(0);
+            toTexts.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(newFirstId).flip();
+            writeFully(toIndex, header, 0);
+            for (int position = drop; position < count; position++) {
+                ByteBuffer record = readFully(index, RECORD, HEADER + (long) position * RECORD);
+                long audioOffset = record.getLong(8);
+                long audioBytes = record.getInt(16) * 2L;
+                long textOffset = record.getLong(24);
+                int textLength = record.getInt(32);
+                record.putLong(8, copy(audio, audioOffset, audioBytes, toAudio));
+                if (textOffset >= 0 && textLength > 0) record.putLong(24, copy(texts, textOffset, textLength, toTexts));
+                writeFully(toIndex, record, HEADER + (long) (position - drop) * RECORD);
+            }
+            toAudio.force(false);
+            toTexts.force(false);
+            toIndex.force(false);
+        }
+        index.close();
+        audio.close();
+        texts.close();
+        // The new index takes over in one step, the old files are deleted by open()
+        if (!newIndex.renameTo(new File(dir, "index.bin"))) throw new IOException("Could not replace the history index");
+        open();
+    }
+
+    // Appends length bytes of from at offset to the end of to, returns where they start
+    private static long copy(FileChannel from, long offset, long length, FileChannel to) throws IOException {
+        long start = to.size();
+        long copied = 0;
+        while (copied < length) {
+            long n = from.transferTo(offset + copied, length - copied, to);
+            if (n <= 0) throw new IOException("Unexpected end of history");
+            copied += n;
+        }
+        return start;
+    }
+
+    // Adds or replaces the translation of recording id into language
+    public synchronized void addTranslation(int id, String language, String text, double latencyMs) throws IOException {
+        int position = id - firstId;
+        if (position < 0 || position >= size()) return;  // dropped meanwhile
+        ByteBuffer record = readFully(index, RECORD, HEADER + (long) position * RECORD);
+        Map<String, Translation> translations = readTranslations(record.getLong(24), record.getInt(32));
+        translations.put(language, new Translation(text, (float) latencyMs));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(translations.size());
+        for (Map.Entry<String, Translation> entry : translations.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().text);
+            out.writeFloat(entry.getValue().latencyMs);
+        }
+        out.flush();
+        long textOffset = texts.size();
+        writeFully(texts, ByteBuffer.wrap(bytes.toByteArray()), textOffset);
+
+        ByteBuffer reference = ByteBuffer.allocate(12);
+        reference.putLong(textOffset).putInt(bytes.size()).flip();
+        writeFully(index, reference, HEADER + (long) position * RECORD + 24);
+    }
+
+    public synchronized Entry get(int id) throws IOException {
+        List<Entry> entries = getPage(id, 1);
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    // Up to count entries from id downwards, i.e. newest first when starting at getLastId()
+    public synchronized List<Entry> getPage(int fromId, int count) throws IOException {
+        int last = Math.min(fromId - firstId, size() - 1);
+        int first = Math.max(0, last - count + 1);
+        List<Entry> entries = new ArrayList<>(Math.max(0, last - first + 1));
+        if (last < first) return entries;
+        ByteBuffer records = index.map(FileChannel.MapMode.READ_ONLY, HEADER + (long) first * RECORD, (long) (last - first + 1) * RECORD);
+        for (int position = last; position >= first; position--) {
+            records.position((position - first) * RECORD);
+            long timestamp = records.getLong();
+            long audioOffset = records.getLong();
+            int samples = records.getInt();
+            int peak = records.getInt();
+            long textOffset = records.getLong();
+            int textLength = records.getInt();
+            entries.add(new Entry(firstId + position, timestamp, audioOffset, samples, peak, readTranslations(textOffset, textLength)));
+        }
+        return entries;
+    }
+
+    // Memory-mapped PCM16 of the entry in native order, read from disk as it is used
+    public synchronized ByteBuffer getAudio(Entry entry) throws IOException {
+        return audio.map(FileChannel.MapMode.READ_ONLY, entry.audioOffset, (long) entry.samples * 2).order(ByteOrder.nativeOrder());
+    }
+
+    private Map<String, Translation> readTranslations(long offset, int length) throws IOException {
+        Map<String, Translation> translations = new LinkedHashMap<>();
+        if (offset < 0 || length == 0) return translations;
+        ByteBuffer bytes = readFully(texts, length, offset);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.array()));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String language = in.readUTF();
+            String text = in.readUTF();
+            translations.put(language, new Translation(text, in.readFloat()));
+        }
+        return translations;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int length, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of history");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        long offset = position;
+        while (data.hasRemaining()) offset += channel.write(data, offset);
+    }
+}
@@ -0,0 +1,295 @@
+package com.seamless.asr;
+
+import android.os.Debug;
+import android.os.Process;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Timings and memory use of every stage: model load, preprocessing of each recording, inference per request and
+// language, and the stages of the last AudioPipeline. The last MAX_RECORDS of each are kept, with a latency histogram,
+// and can be exported as JSON.
+public class InferenceMetrics {
+    private static final String TAG = "Metrics";
+    private static final int MAX_RECORDS = 200;
+    private static final int SAMPLE_RATE = 16000;
+    private static final long HEAP_SAMPLE_MS = 20;
+    // Upper bounds of the latency histogram buckets in ms, the last bucket is open
+    private static final long[] BUCKETS_MS = {250, 500, 1000, 2000, 4000, 8000, 16000, 32000};
+    private static InferenceMetrics instance;
+
+    public static class Preprocessing {
+        public final long timestamp = System.currentTimeMillis();
+        public final int samples;
+        public final int speechSamples;
+        public final int segments;
+        public final double vadMs;
+        public final double convertMs;
+        public final double tensorMs;
+
+        Preprocessing(int samples, int speechSamples, int segments, double vadMs, double convertMs, double tensorMs) {
+            this.samples = samples;
+            this.speechSamples = speechSamples;
+            this.segments = segments;
+            this.vadMs = vadMs;
+            this.convertMs = convertMs;
+            this.tensorMs = tensorMs;
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("timestamp", timestamp)
+                    .put("samples", samples)
+                    .put("speech_samples", speechSamples)
+                    .put("segments", segments)
+                    .put("vad_ms", vadMs)
+                    .put("convert_ms", convertMs)
+                    .put("tensor_ms", tensorMs);
+        }
+    }
+
+    public static class Inference {
+        public final long timestamp = System.currentTimeMillis();
+        public final long requestId;
+        public final String language;
+        public final int segments;
+        public final double audioSeconds;
+        public final double wallMs;
+        public final long cpuMs;
+        public final long peakNativeHeap;
+        public final long peakJavaHeap;
+
+        Inference(long requestId, String language, int segments, double audioSeconds, double wallMs, long cpuMs, long peakNativeHeap, long peakJavaHeap) {
+            this.requestId = requestId;
+            this.language = language;
+            this.segments = segments;
+            this.audioSeconds = audioSeconds;
+            this.wallMs = wallMs;
+            this.cpuMs = cpuMs;
+            this.peakNativeHeap = peakNativeHeap;
+            this.peakJavaHeap = peakJavaHeap;
+        }
+
+        // Audio seconds per second of processing, above 1 is faster than real time
+        public double getRealtimeFactor() {
+            return wallMs > 0 ? audioSeconds * 1000 / wallMs : 0;
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("timestamp", timestamp)
+                    .put("request", requestId)
+                    .put("language", language)
+                    .put("segments", segments)
+                    .put("audio_s", audioSeconds)
+                    .put("forward_wall_ms", wallMs)
+                    .put("forward_cpu_ms", cpuMs)
+                    .put("rtf", getRealtimeFactor())
+                    .put("peak_native_heap", peakNativeHeap)
+                    .put("peak_java_heap", peakJavaHeap);
+        }
+    }
+
+    // Samples native and Java heap use while a stage runs, forward() frees its activations before it returns
+    public class HeapProbe {
+        private final ScheduledFuture<?> task;
+        private volatile long peakNative;
+        private volatile long peakJava;
+
+        private HeapProbe() {
+            sample();
+            task = sampler.scheduleAtFixedRate(this::sample, HEAP_SAMPLE_MS, HEAP_SAMPLE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            Runtime runtime = Runtime.getRuntime();
+            peakNative = Math.max(peakNative, Debug.getNativeHeapAllocatedSize());
+            peakJava = Math.max(peakJava, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        public void stop() {
+            task.cancel(false);
+            sample();
+        }
+
+        public long getPeakNativeHeap() {
+            return peakNative;
+        }
+
+        public long getPeakJavaHeap() {
+            return peakJava;
+        }
+    }
+
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "HeapSampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ArrayDeque<Preprocessing> preprocessing = new ArrayDeque<>();
+    private final ArrayDeque<Inference> inferences = new ArrayDeque<>();
+    private List<StageStats> pipeline = Collections.emptyList();  // stages of the last long audio translation
+    private String modelPath;
+    private long loadStartNanos;
+    private double prefetchMs = -1;
+    private double modelLoadMs = -1;
+    private double warmupMs = -1;
+    private double firstResultMs = -1;   // from the start of loading to the first translation, includes recording
+    private double firstLatencyMs = -1;  // from submitting the first request to its first result
+
+    public static synchronized InferenceMetrics getInstance() {
+        if (instance == null) instance = new InferenceMetrics();
+        return instance;
+    }
+
+    private InferenceMetrics() {}
+
+    // Starts the time to first result
+    public synchronized void startModelLoad(String path) {
+        modelPath = path;
+        loadStartNanos = System.nanoTime();
+        prefetchMs = modelLoadMs = warmupMs = firstResultMs = firstLatencyMs = -1;
+    }
+
+    public synchronized void recordPrefetch(double ms, long bytes) {
+        prefetchMs = ms;
+        Log.d(TAG, "Model prefetched in " + Math.round(ms) + " ms, " + bytes / 1024 / 1024 + " MB");
+    }
+
+    public synchronized void recordModelLoad(double ms) {
+        modelLoadMs = ms;
+        Log.d(TAG, "Model loaded in " + Math.round(ms) + " ms");
+    }
+
+    public synchronized void recordWarmup(double ms) {
+        warmupMs = ms;
+        Log.d(TAG, "Warmup inference took " + Math.round(ms) + " ms");
+    }
+
+    // Called for every translation result, only the first one after loading is kept
+    public synchronized void recordResult(long submittedNanos) {
+        if (firstResultMs >= 0 || loadStartNanos == 0) return;
+        firstResultMs = millisSince(loadStartNanos);
+        firstLatencyMs = millisSince(submittedNanos);
+        Log.d(TAG, "Time to first result " + Math.round(firstResultMs) + " ms after loading, " + Math.round(firstLatencyMs) + " ms after the request");
+    }
+
+    public synchronized double getTimeToFirstResult() {
+        return firstResultMs;
+    }
+
+    public synchronized void recordPreprocessing(int samples, int speechSamples, int segments, double vadMs, double convertMs, double tensorMs) {
+        add(preprocessing, new Preprocessing(samples, speechSamples, segments, vadMs, convertMs, tensorMs));
+    }
+
+    public synchronized Inference recordInference(long requestId, String language, int segments, int audioSamples, double wallMs, long cpuMs, HeapProbe heap) {
+        Inference inference = new Inference(requestId, language, segments, (double) audioSamples / SAMPLE_RATE, wallMs, cpuMs,
+                heap.getPeakNativeHeap(), heap.getPeakJavaHeap());
+        add(inferences, inference);
+        Log.d(TAG, "Inference " + language + ": " + Math.round(wallMs) + " ms, cpu " + cpuMs + " ms, rtf " + String.format(Locale.ROOT, "%.2f", inference.getRealtimeFactor()));
+        return inference;
+    }
+
+    public synchronized void recordPipeline(List<StageStats> stages) {
+        pipeline = stages;
+    }
+
+    public HeapProbe startHeapProbe() {
+        return new HeapProbe();
+    }
+
+    // CPU time of the whole process in ms, forward() runs on PyTorch's own thread pool
+    public static long cpuTimeMs() {
+        return Process.getElapsedCpuTime();
+    }
+
+    public static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    public synchronized List<Inference> getInferences() {
+        return Collections.unmodifiableList(new ArrayList<>(inferences));
+    }
+
+    // Number of recent inferences per latency bucket, see BUCKETS_MS
+    public synchronized int[] getLatencyHistogram() {
+        int[] counts = new int[BUCKETS_MS.length + 1];
+        for (Inference inference : inferences) {
+            int bucket = 0;
+            while (bucket < BUCKETS_MS.length && inference.wallMs > BUCKETS_MS[bucket]) bucket++;
+            counts[bucket]++;
+        }
+        return counts;
+    }
+
+    // Wall time percentile of recent inferences, 0 if there are none
+    public synchronized double getLatencyPercentile(double percentile) {
+        if (inferences.isEmpty()) return 0;
+        double[] wall = new double[inferences.size()];
+        int i = 0;
+        for (Inference inference : inferences) wall[i++] = inference.wallMs;
+        Arrays.sort(wall);
+        return wall[(int) Math.min(wall.length - 1, Math.floor(percentile / 100 * wall.length))];
+    }
+
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONArray buckets = new JSONArray();
+        int[] counts = getLatencyHistogram();
+        for (int i = 0; i < counts.length; i++) {
+            buckets.put(new JSONObject()
+                    .put("le_ms", i < BUCKETS_MS.length ? String.valueOf(BUCKETS_MS[i]) : "inf")
+                    .put("count", counts[i]));
+        }
+        JSONArray pre = new JSONArray();
+        for (Preprocessing p : preprocessing) pre.put(p.toJson());
+        JSONArray inf = new JSONArray();
+        for (Inference p : inferences) inf.put(p.toJson());
+        JSONArray stages = new JSONArray();
+        for (StageStats stage : pipeline) stages.put(stage.toJson());
+
+        return new JSONObject()
+                .put("model", modelPath == null ? JSONObject.NULL : modelPath)
+                .put("prefetch_ms", prefetchMs)
+                .put("model_load_ms", modelLoadMs)
+                .put("warmup_ms", warmupMs)
+                .put("time_to_first_result_ms", firstResultMs)
+                .put("first_result_latency_ms", firstLatencyMs)
+                .put("latency_p50_ms", getLatencyPercentile(50))
+                .put("latency_p90_ms", getLatencyPercentile(90))
+                .put("latency_histogram", buckets)
+                .put("preprocessing", pre)
+                .put("inference", inf)
+                .put("pipeline", stages);
+    }
+
+    public void export(File file) throws IOException, JSONException {
+        String json = toJson().toString(2);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(json);
+        }
+    }
+
+    private static <T> void add(ArrayDeque<T> records, T record) {
+        if (records.size() == MAX_RECORDS) records.removeFirst();
+        records.addLast(record);
+    }
+}
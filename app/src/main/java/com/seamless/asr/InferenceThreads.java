@@ -0,0 +1,162 @@
+package com.seamless.asr;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.PyTorchAndroid;
+import org.pytorch.Tensor;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Size of PyTorch's intra-op thread pool. On big.LITTLE SoCs the default pool also runs on the little cores, where
+// one slow thread holds up every parallel op. By default the pool size is tuned once per device and model: 1..N
+// threads are timed on a short input and the fastest is stored. Until then the pool has one thread per core.
+// With performance cores preferred the pool has no more threads than there are big cores. Java has no CPU affinity
+// API and the pool threads are PyTorch's own, so the scheduler still decides where they run.
+public class InferenceThreads {
+    private static final String TAG = "InferenceThreads";
+    public static final int AUTO = -1;    // tuned on first run
+    public static final int DEFAULT = 0;  // one thread per core like PyTorch, or per big core
+    private static final String PREF_THREADS = "inferenceThreads";
+    private static final String PREF_PERFORMANCE_CORES = "inferencePerformanceCores";
+    private static final String PREF_TUNED = "inferenceThreadsTuned";
+    private static final String PREF_TUNED_FOR = "inferenceThreadsTunedFor";
+    private static final int TUNE_SAMPLES = 32000;  // 2 s of silence
+    private static final int TUNE_RUNS = 2;
+    private static final double TUNE_MARGIN = 1.05;  // more threads must be 5 % faster to win
+    private static final String TUNE_LANGUAGE = "eng";
+
+    private final SharedPreferences prefManager;
+    private final String tuningKey;
+
+    public InferenceThreads(Context context, String modelName) {
+        prefManager = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        tuningKey = Build.FINGERPRINT + "/" + modelName;
+    }
+
+    // AUTO, DEFAULT or a number of threads
+    public int getConfigured() {
+        return prefManager.getInt(PREF_THREADS, AUTO);
+    }
+
+    // AUTO discards the stored result, so needsTuning() is true again
+    public void setConfigured(int threads) {
+        SharedPreferences.Editor editor = prefManager.edit();
+        editor.putInt(PREF_THREADS, threads);
+        if (threads == AUTO) editor.remove(PREF_TUNED).remove(PREF_TUNED_FOR);
+        editor.apply();
+    }
+
+    public boolean isPreferPerformanceCores() {
+        return prefManager.getBoolean(PREF_PERFORMANCE_CORES, true);
+    }
+
+    public void setPreferPerformanceCores(boolean prefer) {
+        prefManager.edit().putBoolean(PREF_PERFORMANCE_CORES, prefer).apply();
+    }
+
+    // Stored result of tuning on this device and model, 0 if there is none
+    public int getTuned() {
+        return tuningKey.equals(prefManager.getString(PREF_TUNED_FOR, "")) ? prefManager.getInt(PREF_TUNED, 0) : 0;
+    }
+
+    // True if the pool size is AUTO and has not been tuned on this device and model
+    public boolean needsTuning() {
+        return getConfigured() == AUTO && getTuned() <= 0;
+    }
+
+    // Sets the pool size, one thread per (big) core while AUTO is not tuned yet
+    public void apply() {
+        int maxThreads = getMaxThreads();
+        int threads = getConfigured();
+        if (threads == AUTO) threads = getTuned();
+        if (threads <= 0) threads = maxThreads;
+        PyTorchAndroid.setNumThreads(threads);
+        Log.d(TAG, "Inference uses " + threads + " threads" + (isPreferPerformanceCores() ? ", performance cores preferred" : ""));
+    }
+
+    public Tuning startTuning() {
+        return new Tuning(getMaxThreads());
+    }
+
+    private int getMaxThreads() {
+        return isPreferPerformanceCores() ? countPerformanceCores() : Runtime.getRuntime().availableProcessors();
+    }
+
+    // Finds the fastest pool size from 1 to maxThreads, each timed as the best of TUNE_RUNS inferences.
+    // One size is timed per step, so the steps can run between translations without holding them up for long.
+    public class Tuning {
+        private final int maxThreads;
+        private final IValue input;
+        private final IValue language = IValue.from(TUNE_LANGUAGE);
+        private int threads = 0;
+        private int best = 1;
+        private double bestMs = Double.MAX_VALUE;
+
+        Tuning(int maxThreads) {
+            this.maxThreads = maxThreads;
+            FloatBuffer silence = Tensor.allocateFloatBuffer(TUNE_SAMPLES);
+            input = IValue.from(Tensor.fromBlob(silence, new long[]{1, TUNE_SAMPLES}));
+        }
+
+        // Times the next pool size and restores the previous one. False once the result is stored and applied.
+        public boolean step(Module module) {
+            threads++;
+            PyTorchAndroid.setNumThreads(threads);
+            double ms = Double.MAX_VALUE;
+            try {
+                for (int run = 0; run < TUNE_RUNS; run++) {
+                    long start = System.nanoTime();
+                    module.forward(input, language);
+                    ms = Math.min(ms, InferenceMetrics.millisSince(start));
+                }
+            } catch (RuntimeException e) {
+                PyTorchAndroid.setNumThreads(maxThreads);
+                throw e;
+            }
+            Log.d(TAG, threads + " threads: " + Math.round(ms) + " ms");
+            if (ms * TUNE_MARGIN < bestMs) {
+                best = threads;
+                bestMs = ms;
+            }
+            if (threads < maxThreads) {
+                PyTorchAndroid.setNumThreads(maxThreads);
+                return true;
+            }
+            Log.d(TAG, "Tuned to " + best + " threads");
+            prefManager.edit().putInt(PREF_TUNED, best).putString(PREF_TUNED_FOR, tuningKey).apply();
+            PyTorchAndroid.setNumThreads(best);
+            return false;
+        }
+    }
+
+    // Cores that are not in the slowest cluster, all cores if they are alike or cpufreq cannot be read
+    static int countPerformanceCores() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long[] maxFreq = new long[cores];
+        long slowest = Long.MAX_VALUE;
+        for (int cpu = 0; cpu < cores; cpu++) {
+            try {
+                String value = new String(Files.readAllBytes(Paths.get("/sys/devices/system/cpu/cpu" + cpu + "/cpufreq/cpuinfo_max_freq")), StandardCharsets.US_ASCII);
+                maxFreq[cpu] = Long.parseLong(value.trim());
+            } catch (IOException | NumberFormatException e) {
+                return cores;
+            }
+            slowest = Math.min(slowest, maxFreq[cpu]);
+        }
+        int fast = 0;
+        for (long freq : maxFreq) {
+            if (freq > slowest) fast++;
+        }
+        return fast > 0 ? fast : cores;
+    }
+}
@@ -0,0 +1,173 @@
+package com.seamless.asr;
+
+import android.util.Log;
+
+import org.pytorch.IValue;
+import org.pytorch.LiteModuleLoader;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Process wide holder of the PyTorch module, so the model is loaded once and survives activity recreation.
+// Callers get a future that completes when the model is loaded, requests made earlier simply wait for it.
+// While the loader parses the file it is prefetched into the page cache, and a short inference on silence
+// warms up the runtime before the future completes, so the first real translation does not pay for a cold start.
+// The thread pool is configured by InferenceThreads. If it still has to be tuned, that runs step by step on the
+// translation worker whenever it is idle after the model is loaded, so it never delays the first translation.
+public class ModelManager {
+    private static final String TAG = "ModelManager";
+    private static final int WARMUP_SAMPLES = 16000;  // 1 s of silence
+    private static final String WARMUP_LANGUAGE = "eng";
+    private static ModelManager instance;
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ModelPrefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ModelPrefetcher.Mode prefetchMode = ModelPrefetcher.Mode.MMAP;
+    private boolean warmup = true;
+    private InferenceThreads threads;
+    private InferenceThreads.Tuning tuning;  // running tuning, dropped when it is replaced or the model released
+    private CompletableFuture<Module> module;
+    private String modelPath;
+
+    public static synchronized ModelManager getInstance() {
+        if (instance == null) instance = new ModelManager();
+        return instance;
+    }
+
+    private ModelManager() {}
+
+    // Applies to the next load()
+    public synchronized void setLoadOptions(ModelPrefetcher.Mode prefetchMode, boolean warmup) {
+        this.prefetchMode = prefetchMode;
+        this.warmup = warmup;
+    }
+
+    // Applies to the next load(), null leaves PyTorch's thread pool as it is
+    public synchronized void setThreads(InferenceThreads threads) {
+        this.threads = threads;
+    }
+
+    // Applies changed thread settings to the loaded model and starts tuning if needed, call on the translation worker
+    public void applyThreads() {
+        InferenceThreads config;
+        Module loaded;
+        synchronized (this) {
+            tuning = null;
+            if (threads == null || !isReady()) return;
+            config = threads;
+            loaded = module.join();
+        }
+        config.apply();
+        if (config.needsTuning()) tuneWhenIdle(loaded, config);
+    }
+
+    // Starts loading the model in the background, does nothing if this model is already loaded or loading
+    public synchronized CompletableFuture<Module> load(File modelFile) {
+        String path = modelFile.getAbsolutePath();
+        if (module != null && path.equals(modelPath) && !module.isCompletedExceptionally()) return module;
+        release();
+        modelPath = path;
+        InferenceMetrics metrics = InferenceMetrics.getInstance();
+        metrics.startModelLoad(path);
+        ModelPrefetcher.Mode prefetch = prefetchMode;
+        boolean warm = warmup;
+        InferenceThreads config = threads;
+        if (prefetch != ModelPrefetcher.Mode.NONE) {
+            prefetcher.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    long bytes = ModelPrefetcher.prefetch(modelFile, prefetch);
+                    metrics.recordPrefetch(InferenceMetrics.millisSince(start), bytes);
+                } catch (IOException e) {
+                    Log.w(TAG, "Prefetch failed", e);
+                }
+            });
+        }
+        module = CompletableFuture.supplyAsync(() -> {
+            Log.d(TAG, "Loading model " + path);
+            long start = System.nanoTime();
+            Module loaded = LiteModuleLoader.load(path);
+            metrics.recordModelLoad(InferenceMetrics.millisSince(start));
+            if (config != null) config.apply();
+            if (warm) warmup(loaded);
+            return loaded;
+            //return LiteModuleLoader.load(path, null, Device.VULKAN); // no noticable increase in speed
+        }, loader);
+        if (config != null) {
+            module.thenAccept(loaded -> {
+                if (config.needsTuning()) tuneWhenIdle(loaded, config);
+            });
+        }
+        return module;
+    }
+
+    // Future of the current model, fails if load() was not called
+    public synchronized CompletableFuture<Module> getModule() {
+        if (module == null) {
+            CompletableFuture<Module> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("No model loaded"));
+            return failed;
+        }
+        return module;
+    }
+
+    // Tunes the thread pool of loaded, one pool size whenever the translation worker is idle
+    private void tuneWhenIdle(Module loaded, InferenceThreads config) {
+        InferenceThreads.Tuning started = config.startTuning();
+        synchronized (this) {
+            tuning = started;
+        }
+        TranslationScheduler.getInstance().runWhenIdle(() -> tuneStep(loaded, started));
+    }
+
+    private void tuneStep(Module loaded, InferenceThreads.Tuning step) {
+        synchronized (this) {
+            // release() destroys the module on the worker after this step, so it is safe to run once checked here
+            if (tuning != step || module == null || module.getNow(null) != loaded) return;
+        }
+        boolean more;
+        try {
+            more = step.step(loaded);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Tuning failed", e);
+            return;
+        }
+        if (more) TranslationScheduler.getInstance().runWhenIdle(() -> tuneStep(loaded, step));
+    }
+
+    // One inference on silence, so the first real translation finds warm pages and caches
+    private static void warmup(Module module) {
+        long start = System.nanoTime();
+        try {
+            FloatBuffer silence = Tensor.allocateFloatBuffer(WARMUP_SAMPLES);
+            module.forward(IValue.from(Tensor.fromBlob(silence, new long[]{1, WARMUP_SAMPLES})), IValue.from(WARMUP_LANGUAGE));
+            InferenceMetrics.getInstance().recordWarmup(InferenceMetrics.millisSince(start));
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Warmup failed", e);
+        }
+    }
+
+    public synchronized boolean isReady() {
+        return module != null && module.isDone() && !module.isCompletedExceptionally();
+    }
+
+    // Frees the native model once it has finished loading. The module is destroyed on the translation worker
+    // after the current translation, so a running forward() never sees it go away.
+    public synchronized void release() {
+        if (module == null) return;
+        module.thenAccept(loaded -> TranslationScheduler.getInstance().runAfterCurrent(loaded::destroy));
+        module = null;
+        tuning = null;
+        modelPath = null;
+    }
+}
@@ -0,0 +1,56 @@
+package com.seamless.asr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Pulls the model file into the page cache while LiteModuleLoader reads and parses it, so the loader and the
+// first inferences hit warm pages. MMAP maps the file in windows and load()s them, which advises the kernel
+// (madvise WILLNEED) and touches every page. READ is a plain sequential read-ahead for when mapping fails.
+public class ModelPrefetcher {
+    public enum Mode { NONE, MMAP, READ }
+
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;  // keeps the mapped address space small on 32 bit
+    private static final int READ_BUFFER = 1024 * 1024;
+
+    // Bytes prefetched
+    public static long prefetch(File file, Mode mode) throws IOException {
+        switch (mode) {
+            case MMAP:
+                try {
+                    return mapAndLoad(file);
+                } catch (IOException e) {
+                    return readAhead(file);
+                }
+            case READ:
+                return readAhead(file);
+            default:
+                return 0;
+        }
+    }
+
+    private static long mapAndLoad(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                window.load();
+            }
+            return size;
+        }
+    }
+
+    private static long readAhead(File file) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER];
+        long total = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,102 @@
+package com.seamless.asr;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// PCM16 to float with scaling in a single pass, level normalization by the selected GainStage, downmixing and
+// float to PCM16, in blocks of bulk get/put. An instance owns its scratch blocks and gain stage, so use one per thread.
+public class PcmConverter {
+    private static final int BLOCK = 4096;  // samples per bulk get/put
+    private static volatile GainStage.Factory gainFactory = GainStage.AUTOMATIC;
+
+    private final short[] pcmBlock = new short[BLOCK];
+    private final float[] floatBlock = new float[BLOCK];
+    private GainStage gain;
+    private GainStage.Factory gainCreatedBy;
+
+    // Gain stage of normalize() and applyGain() in every converter, e.g. PEAK to compare with the old normalization
+    public static void setGain(GainStage.Factory factory) {
+        gainFactory = factory;
+    }
+
+    public static GainStage.Factory getGain() {
+        return gainFactory;
+    }
+
+    // Converts pcm between position and limit and appends the result to out
+    public void convert(ShortBuffer pcm, FloatBuffer out, float scale) {
+        while (pcm.hasRemaining()) {
+            int n = Math.min(BLOCK, pcm.remaining());
+            pcm.get(pcmBlock, 0, n);
+            for (int i = 0; i < n; i++) floatBlock[i] = pcmBlock[i] * scale;
+            out.put(floatBlock, 0, n);
+        }
+    }
+
+    // Converts one stream, e.g. a speech segment, between position and limit and appends it to out, normalized by
+    // the selected gain stage. peak is the largest absolute value of the stream, or -1 if it is not known.
+    public void normalize(ShortBuffer pcm, FloatBuffer out, int peak) {
+        FloatBuffer converted = out.duplicate();
+        convert(pcm, out, 1.0f / 32768);
+        converted.limit(out.position());
+        applyGain(converted, peak);
+    }
+
+    // Runs the selected gain stage over data between position and limit in place, as one stream
+    public void applyGain(FloatBuffer data, int peak) {
+        GainStage.Factory factory = gainFactory;
+        if (gain == null || gainCreatedBy != factory) {
+            gain = factory.create();
+            gainCreatedBy = factory;
+        }
+        gain.reset(peak);
+        FloatBuffer out = data.duplicate();
+        gain.process(data, out);
+        gain.flush(out);
+    }
+
+    // Averages the channels of interleaved PCM16 between position and limit into mono floats in [-1, 1),
+    // appended to out. A frame cut short at the limit is left in pcm.
+    public void downmix(ShortBuffer interleaved, int channels, FloatBuffer out) {
+        float scale = 1.0f / (32768 * channels);
+        int blockFrames = BLOCK / channels;
+        while (interleaved.remaining() >= channels) {
+            int frames = Math.min(blockFrames, interleaved.remaining() / channels);
+            interleaved.get(pcmBlock, 0, frames * channels);
+            for (int f = 0; f < frames; f++) {
+                int sum = 0;
+                for (int c = 0; c < channels; c++) sum += pcmBlock[f * channels + c];
+                floatBlock[f] = sum * scale;
+            }
+            out.put(floatBlock, 0, frames);
+        }
+    }
+
+    // Floats in [-1, 1] between position and limit to PCM16 with clipping, appended to out
+    public void toPcm16(FloatBuffer in, ShortBuffer out) {
+        while (in.hasRemaining()) {
+            int n = Math.min(BLOCK, in.remaining());
+            in.get(floatBlock, 0, n);
+            for (int i = 0; i < n; i++) {
+                float value = floatBlock[i] * 32768;
+                pcmBlock[i] = (short) (value >= Short.MAX_VALUE ? Short.MAX_VALUE : value <= Short.MIN_VALUE ? Short.MIN_VALUE : value);
+            }
+            out.put(pcmBlock, 0, n);
+        }
+    }
+
+    // Same result as dividing by 32768 and then by the largest absolute value
+    public static float scale(int peak) {
+        return peak > 0 ? 1.0f / peak : 1.0f / 32768;
+    }
+
+    // Largest absolute sample value between position and limit
+    public static int peak(ShortBuffer pcm) {
+        int peak = 0;
+        for (int i = pcm.position(); i < pcm.limit(); i++) {
+            int value = Math.abs(pcm.get(i));
+            if (value > peak) peak = value;
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,64 @@
+package com.seamless.asr;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+// Converts PCM16 of any sample rate and channel count to 16 kHz mono PCM16: the channels are averaged and
+// Resampler converts the rate. Works on caller provided buffers and allocates nothing after setFormat().
+// No Android dependencies.
+public class PcmNormalizer {
+    public static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK = 4096;  // frames converted at a time
+
+    private final PcmConverter converter = new PcmConverter();
+    private final FloatBuffer mono = FloatBuffer.allocate(BLOCK);
+    private FloatBuffer resampled = FloatBuffer.allocate(0);
+    private Resampler resampler;
+    private int sampleRate;
+    private int channels;
+
+    // Format of the following input, call flush() first if there was input in another format
+    public void setFormat(int sampleRate, int channels) {
+        if (channels < 1) throw new IllegalArgumentException("Invalid channel count " + channels);
+        this.resampler = new Resampler(sampleRate, SAMPLE_RATE);
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        resampled = FloatBuffer.allocate(resampler.getMaxOutput(BLOCK));
+    }
+
+    public boolean isFormat(int sampleRate, int channels) {
+        return resampler != null && this.sampleRate == sampleRate && this.channels == channels;
+    }
+
+    // Converts whole frames of interleaved from its position, as many as fit into out, and appends them to out.
+    // Call again while interleaved has a frame left.
+    public void process(ShortBuffer interleaved, ShortBuffer out) {
+        if (resampler == null) throw new IllegalStateException("No format set");
+        int frames = Math.min(BLOCK, interleaved.remaining() / channels);
+        while (frames > 1 && resampler.getMaxOutput(frames) > out.remaining()) frames /= 2;
+        if (frames == 0 || resampler.getMaxOutput(frames) > out.remaining()) return;
+        ShortBuffer block = interleaved.duplicate();
+        block.limit(block.position() + frames * channels);
+        mono.clear();
+        converter.downmix(block, channels, mono);
+        interleaved.position(block.position());
+        mono.flip();
+        resampled.clear();
+        resampler.process(mono, resampled);
+        resampled.flip();
+        converter.toPcm16(resampled, out);
+    }
+
+    // Pushes the samples still inside the resampler out, out needs getMaxFlush() remaining
+    public void flush(ShortBuffer out) {
+        if (resampler == null) return;
+        resampled.clear();
+        resampler.flush(resampled);
+        resampled.flip();
+        converter.toPcm16(resampled, out);
+    }
+
+    public int getMaxFlush() {
+        return resampler == null ? 0 : resampler.getMaxOutput(Resampler.TAPS);
+    }
+}
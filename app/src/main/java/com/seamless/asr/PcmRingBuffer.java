@@ -0,0 +1,92 @@
+package com.seamless.asr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+// Preallocated ring of PCM16 samples in a direct, native order buffer, written by one producer thread.
+// The producer reads audio straight into writeRegion() and publishes it with commit(). Readers get views of
+// committed samples instead of copies. A view stays valid until the producer wraps around and overwrites it,
+// so with a ring that is never filled past its capacity views stay valid until clear().
+public class PcmRingBuffer {
+    private final ByteBuffer storage;
+    private final int capacity;  // samples
+    private volatile long written = 0;  // samples committed since clear(), only changed by the producer
+
+    public PcmRingBuffer(int capacitySamples) {
+        capacity = capacitySamples;
+        storage = ByteBuffer.allocateDirect(capacitySamples * 2).order(ByteOrder.nativeOrder());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // Producer: starts over, earlier views become invalid
+    public void clear() {
+        written = 0;
+    }
+
+    // Samples committed since clear(), the newest one has index getWritten() - 1
+    public long getWritten() {
+        return written;
+    }
+
+    // Producer: contiguous space of at most maxSamples at the write position, to be filled and then committed
+    public ByteBuffer writeRegion(int maxSamples) {
+        int offset = (int) (written % capacity);
+        return region(offset, Math.min(maxSamples, capacity - offset));
+    }
+
+    // Producer: publishes samples written to the last writeRegion()
+    public void commit(int samples) {
+        written = written + samples;  // single producer, the volatile write publishes the data
+    }
+
+    // Samples from index from up to to that can be read as one view, before the ring wraps around
+    public int contiguous(long from, long to) {
+        int offset = (int) (from % capacity);
+        return (int) Math.min(to - from, capacity - offset);
+    }
+
+    // View of count samples starting at index from. They must be committed, not overwritten and must not wrap around.
+    public ByteBuffer view(long from, int count) {
+        if (from < written - capacity || from + count > written) {
+            throw new IllegalArgumentException("Samples " + from + "+" + count + " not available, written " + written);
+        }
+        int offset = (int) (from % capacity);
+        if (offset + count > capacity) throw new IllegalArgumentException("View wraps around");
+        return region(offset, count);
+    }
+
+    // The newest count samples as one view. If they wrap around, the storage is rotated in place first
+    // and the newest sample gets index count - 1. Only call while the producer is stopped.
+    public ByteBuffer linearize(int count) {
+        count = (int) Math.min(count, Math.min(written, capacity));
+        long from = written - count;
+        int offset = (int) (from % capacity);
+        if (offset + count <= capacity) return region(offset, count);
+
+        ShortBuffer samples = storage.asShortBuffer();
+        reverse(samples, 0, offset);
+        reverse(samples, offset, capacity);
+        reverse(samples, 0, capacity);
+        written = count;  // the ring starts at the oldest retained sample now
+        return region(0, count);
+    }
+
+    private ByteBuffer region(int offset, int count) {
+        ByteBuffer region = storage.duplicate();
+        region.limit((offset + count) * 2);
+        region.position(offset * 2);
+        return region.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static void reverse(ShortBuffer samples, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            short s = samples.get(i);
+            samples.put(i, samples.get(j));
+            samples.put(j, s);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.seamless.asr;
+
+import java.nio.ShortBuffer;
+
+// Receives decoded PCM16 block by block, e.g. from WavReader.stream() or a MediaCodec decoder
+public interface PcmSink {
+    // Format of the following blocks, may change between blocks
+    void setFormat(int sampleRate, int channels) throws InterruptedException;
+
+    // Interleaved PCM16 between position and limit, in the format of the last setFormat().
+    // The sink consumes all of it or copies what it keeps, the caller may reuse the buffer afterwards.
+    void write(ShortBuffer interleaved) throws InterruptedException;
+}
@@ -0,0 +1,36 @@
+package com.seamless.asr;
+
+import java.nio.FloatBuffer;
+
+// Scales the stream by its peak, as recordings were normalized before GainStage. Needs the peak in reset(),
+// so the whole stream has to be recorded first, and a click reduces the level of everything else.
+public class PeakGain implements GainStage {
+    private static final int BLOCK = 4096;
+
+    private final float[] block = new float[BLOCK];
+    private float scale = 1;
+
+    @Override
+    public void reset(int peak) {
+        scale = PcmConverter.scale(peak) * 32768;  // input is already divided by 32768
+    }
+
+    @Override
+    public int getLatency() {
+        return 0;
+    }
+
+    @Override
+    public void process(FloatBuffer in, FloatBuffer out) {
+        while (in.hasRemaining()) {
+            int n = Math.min(BLOCK, in.remaining());
+            in.get(block, 0, n);
+            for (int i = 0; i < n; i++) block[i] *= scale;
+            out.put(block, 0, n);
+        }
+    }
+
+    @Override
+    public void flush(FloatBuffer out) {
+    }
+}
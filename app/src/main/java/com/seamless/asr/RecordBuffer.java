@@ -1,48 +1,128 @@
 package com.seamless.asr;
 
+import android.util.Log;
+
+import org.pytorch.Tensor;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
 public class RecordBuffer {
-    // Static variable to store the byte array
-    private static byte[] outputBuffer;
+    private static final String TAG = "RecordBuffer";
+
+    // PCM16 of the last recording in native order, a view of the recorder's reusable buffer or of a history entry mapped from disk
+    private static ByteBuffer outputBuffer;
+    private static int peak;
+    private static long fingerprint;
+
+    // Reusable tensor storage and the tensors built from the speech segments of the current recording
+    private static FloatBuffer tensorStorage;
+    private static List<Tensor> tensors;
+    private static long tensorFingerprint;
+    private static GainStage.Factory tensorGain;
+    private static final PcmConverter converter = new PcmConverter();
+    private static BooleanSupplier tensorsInUse = () -> true;  // until the app tells, never reuse the storage
+
+    // Tells getTensors() whether a translation may still read the tensors it returned before, set by the app
+    public static synchronized void setTensorsInUse(BooleanSupplier inUse) {
+        tensorsInUse = inUse;
+    }
 
-    // Synchronized method to set the byte array
-    public static synchronized void setOutputBuffer(byte[] buffer) {
+    // Stores the recording, peak is the largest absolute sample value
+    public static synchronized void setOutputBuffer(ByteBuffer buffer, int peakValue) {
         outputBuffer = buffer;
+        peak = peakValue;
+        fingerprint = TranslationCache.fingerprint(buffer);
     }
 
-    // Synchronized method to get the byte array
-    public static synchronized byte[] getOutputBuffer() {
-        return outputBuffer;
+    // Forgets the recording before the recorder reuses its buffer, waits for a getTensors() that is still reading it
+    public static synchronized void clear() {
+        outputBuffer = null;
+        peak = 0;
+        fingerprint = 0;
+        tensors = null;
     }
 
-    public static float[] getSamples() {
-        if (RecordBuffer.getOutputBuffer() == null) return new float[0];
-        int numSamples = RecordBuffer.getOutputBuffer().length / 2;
-        ByteBuffer byteBuffer = ByteBuffer.wrap(RecordBuffer.getOutputBuffer());
-        byteBuffer.order(ByteOrder.nativeOrder());
+    // Synchronized method to get the recording
+    public static synchronized ByteBuffer getOutputBuffer() {
+        return outputBuffer == null ? null : outputBuffer.duplicate().order(ByteOrder.nativeOrder());
+    }
 
-        // Convert audio data to PCM_FLOAT format
-        float[] samples = new float[numSamples];
-        float maxAbsValue = 0.0f;
-
-        for (int i = 0; i < numSamples; i++) {
-            samples[i] = (float) (byteBuffer.getShort() / 32768.0);
-            // Track the maximum absolute value
-            if (Math.abs(samples[i]) > maxAbsValue) {
-                maxAbsValue = Math.abs(samples[i]);
-            }
-        }
+    // Hash of the current recording, used as cache key
+    public static synchronized long getFingerprint() {
+        return fingerprint;
+    }
 
-        // Normalize the samples
-        if (maxAbsValue > 0.0f) {
-            for (int i = 0; i < numSamples; i++) {
-                samples[i] /= maxAbsValue;
-            }
-        }
+    public static synchronized int getNumSamples() {
+        return outputBuffer == null ? 0 : outputBuffer.limit() / 2;
+    }
 
+    public static synchronized float[] getSamples() {
+        int numSamples = getNumSamples();
+        float[] samples = new float[numSamples];
+        if (numSamples == 0) return samples;
+        converter.normalize(getOutputBuffer().asShortBuffer(), FloatBuffer.wrap(samples), peak);
         return samples;
+    }
+
+    // Speech segments of the recording as tensors of shape {1, samples}, empty if there is no recording.
+    // Silence is trimmed by VadSegmenter, the whole recording is used if it finds no speech.
+    // Each segment is normalized on its own by the gain stage selected in PcmConverter.
+    // The tensors are built once per recording. Their storage is reused unless a translation may still read it,
+    // see setTensorsInUse().
+    public static synchronized List<Tensor> getTensors() {
+        return getTensors(fingerprint);
+    }
+
+    // Like getTensors(), but empty unless the current recording still has the given fingerprint,
+    // so a queued translation never reads a buffer that a newer recording reused
+    public static synchronized List<Tensor> getTensors(long expectedFingerprint) {
+        if (expectedFingerprint != fingerprint) return Collections.emptyList();
+        int numSamples = getNumSamples();
+        if (numSamples == 0) return Collections.emptyList();
+        if (tensors != null && tensorFingerprint == fingerprint && tensorGain == PcmConverter.getGain()) return tensors;
+
+        ShortBuffer pcm = getOutputBuffer().asShortBuffer();
+        long vadStart = System.nanoTime();
+        List<VadSegmenter.Segment> segments = VadSegmenter.segmentOrWhole(pcm);
+        double vadMs = InferenceMetrics.millisSince(vadStart);
+        int speechSamples = 0;
+        for (VadSegmenter.Segment segment : segments) speechSamples += segment.length();
+        Log.d(TAG, "Speech segments: " + segments.size() + ", samples: " + speechSamples + " of " + numSamples);
+
+        if (tensorStorage == null || tensorStorage.capacity() < speechSamples || tensorsInUse.getAsBoolean()) {
+            tensorStorage = Tensor.allocateFloatBuffer(Math.max(speechSamples, tensorStorage == null ? 0 : tensorStorage.capacity()));
+        }
+        // Segments are laid out one after another in the storage, each tensor gets a direct view of its part
+        List<Tensor> result = new ArrayList<>(segments.size());
+        int offset = 0;
+        long convertNanos = 0;
+        long tensorNanos = 0;
+        for (VadSegmenter.Segment segment : segments) {
+            tensorStorage.limit(offset + segment.length());
+            tensorStorage.position(offset);
+            FloatBuffer data = tensorStorage.slice();  // capacity segment.length(), as fromBlob requires
+            pcm.limit(segment.end);
+            pcm.position(segment.start);
+            long start = System.nanoTime();
+            converter.normalize(pcm, data, peak);
+            long converted = System.nanoTime();
+            result.add(Tensor.fromBlob(data, new long[]{1, segment.length()}));  //channels 1, time steps = segment length
+            tensorNanos += System.nanoTime() - converted;
+            convertNanos += converted - start;
+            offset += segment.length();
+        }
+        InferenceMetrics.getInstance().recordPreprocessing(numSamples, speechSamples, segments.size(), vadMs, convertNanos / 1e6, tensorNanos / 1e6);
 
+        tensors = Collections.unmodifiableList(result);
+        tensorFingerprint = fingerprint;
+        tensorGain = PcmConverter.getGain();
+        return tensors;
     }
 }
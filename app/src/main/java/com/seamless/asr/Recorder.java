@@ -12,18 +12,39 @@ import androidx.core.app.ActivityCompat;
 
 import com.seamless.R;
 
-import java.io.ByteArrayOutputStream;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+// Records on its own thread. A recording goes IDLE -> STARTING -> RECORDING -> STOPPING -> IDLE,
+// stop() never blocks and returns a future of the recorded audio instead.
 public class Recorder {
 
     public interface RecorderListener {
+        // MSG_RECORDING is sent on the recording thread before the ring buffer is reused, views of the
+        // last recording must no longer be read once it returns
         void onUpdateReceived(String message);
-        void onRealtimeDataReceived(byte[] samples);
-        void onFinalDataReceived(byte[] samples);
+        // samples is a view of the recorder's ring buffer, valid until the next recording starts
+        void onRealtimeDataReceived(ByteBuffer samples);
+        // samples is a view of the ring buffer that is reused by the next recording, peak is the largest absolute sample value
+        void onFinalDataReceived(ByteBuffer samples, int peak);
+    }
+
+    private enum State { IDLE, STARTING, RECORDING, STOPPING }
+
+    // PCM16 of a finished recording, the same view and peak as passed to onFinalDataReceived()
+    public static class Audio {
+        public final ByteBuffer samples;
+        public final int peak;
+
+        Audio(ByteBuffer samples, int peak) {
+            this.samples = samples;
+            this.peak = peak;
+        }
     }
 
     private static final String TAG = "Recorder";
@@ -31,18 +52,17 @@ public class Recorder {
     public static final String MSG_RECORDING_DONE = "Recording done...!";
 
     private final Context mContext;
-    private final AtomicBoolean mInProgress = new AtomicBoolean(false);
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+    private volatile CompletableFuture<Audio> result = CompletableFuture.failedFuture(new IllegalStateException("Nothing recorded"));
 
     private RecorderListener mListener;
     private final Lock lock = new ReentrantLock();
     private final Condition hasTask = lock.newCondition();
-    private final Object fileSavedLock = new Object(); // Lock object for wait/notify
     private final int maxSeconds;
     private final int realtimeSeconds;
 
-    private volatile boolean shouldStartRecording = false;
-
     private final Thread workerThread;
+    private PcmRingBuffer ring;  // maxSeconds of PCM16, reused between recordings
 
     public Recorder(Context context, int maxSeconds, int realtimeSeconds) {
         this.mContext = context;
@@ -57,35 +77,34 @@ public class Recorder {
         this.mListener = listener;
     }
 
-    public void start() {
-        if (!mInProgress.compareAndSet(false, true)) {
-            Log.d(TAG, "Recording is already in progress...");
-            return;
-        }
+    // Future of the new recording, or of the current one if a recording is in progress
+    public CompletableFuture<Audio> start() {
         lock.lock();
         try {
-            shouldStartRecording = true;
+            if (!state.compareAndSet(State.IDLE, State.STARTING)) {
+                Log.d(TAG, "Recording is already in progress...");
+                return result;
+            }
+            result = new CompletableFuture<>();
             hasTask.signal();
+            return result;
         } finally {
             lock.unlock();
         }
     }
 
-    public void stop() {
-        mInProgress.set(false);
-
-        // Wait for the recording thread to finish
-        synchronized (fileSavedLock) {
-            try {
-                fileSavedLock.wait(); // Wait until notified by the recording thread
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // Restore interrupted status
-            }
+    // Returns at once. The future completes with the audio when the recording thread has delivered it,
+    // or exceptionally if recording failed, e.g. without permission. Without a recording it is the last result.
+    public CompletableFuture<Audio> stop() {
+        if (!state.compareAndSet(State.RECORDING, State.STOPPING)) {
+            state.compareAndSet(State.STARTING, State.STOPPING);
         }
+        return result;
     }
 
     public boolean isInProgress() {
-        return mInProgress.get();
+        State current = state.get();
+        return current == State.STARTING || current == State.RECORDING;
     }
 
     private void sendUpdate(String message) {
@@ -93,24 +112,29 @@ public class Recorder {
             mListener.onUpdateReceived(message);
     }
 
-    private void sendRealtimeData(byte[] samples) {
-        if (mListener != null)
-            mListener.onRealtimeDataReceived(samples);
+    // Samples from index from up to to, in two views if they wrap around the end of the ring
+    private void sendRealtimeData(long from, long to) {
+        while (mListener != null && from < to) {
+            int count = ring.contiguous(from, to);
+            mListener.onRealtimeDataReceived(ring.view(from, count));
+            from += count;
+        }
     }
 
-    private void sendFinalData(byte[] samples) {
+    private void sendFinalData(ByteBuffer samples, int peak) {
         if (mListener != null)
-            mListener.onFinalDataReceived(samples);
+            mListener.onFinalDataReceived(samples, peak);
     }
 
     private void recordLoop() {
         while (true) {
+            CompletableFuture<Audio> recording;
             lock.lock();
             try {
-                while (!shouldStartRecording) {
+                while (state.get() == State.IDLE) {
                     hasTask.await();
                 }
-                shouldStartRecording = false;
+                recording = result;
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 return;
@@ -119,22 +143,33 @@ public class Recorder {
             }
 
             // Start recording process
+            Audio audio = null;
+            Exception error = null;
             try {
-                recordAudio();
+                audio = recordAudio();
             } catch (Exception e) {
                 Log.e(TAG, "Recording error...", e);
                 sendUpdate(e.getMessage());
+                error = e;
             } finally {
-                mInProgress.set(false);
+                state.set(State.IDLE);  // before completing, so a chained stage can start the next recording
             }
+            if (error != null) recording.completeExceptionally(error);
+            else recording.complete(audio);
         }
     }
 
-    private void recordAudio() {
+    private Audio recordAudio() {
         if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
             Log.d(TAG, "AudioRecord permission is not granted");
-            sendUpdate(mContext.getString(R.string.need_record_audio_permission));
-            return;
+            throw new SecurityException(mContext.getString(R.string.need_record_audio_permission));
+        }
+
+        // Stopped before the microphone was opened, the recording is empty
+        if (!state.compareAndSet(State.STARTING, State.RECORDING)) {
+            Audio empty = new Audio(ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder()), 0);
+            sendFinalData(empty.samples, empty.peak);
+            return empty;
         }
 
         sendUpdate(MSG_RECORDING);
@@ -150,27 +185,30 @@ public class Recorder {
         AudioRecord audioRecord = new AudioRecord(audioSource, sampleRateInHz, channelConfig, audioFormat, bufferSize);
         audioRecord.startRecording();
 
-        // Calculate maximum byte counts for maxSeconds
-        int bytesForMaxSeconds = sampleRateInHz * bytesPerSample * channels * maxSeconds;
-        int bytesForRealtimeSeconds = sampleRateInHz * bytesPerSample * channels * realtimeSeconds;
-
-        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream(); // Buffer for saving data
-        ByteArrayOutputStream realtimeBuffer = new ByteArrayOutputStream(); // Buffer for real-time processing
-
-        byte[] audioData = new byte[bufferSize];
-        int totalBytesRead = 0;
+        // Calculate maximum sample counts for maxSeconds
+        int samplesForMaxSeconds = sampleRateInHz * channels * maxSeconds;
+        int samplesForRealtimeSeconds = sampleRateInHz * channels * realtimeSeconds;
+        int samplesPerRead = bufferSize / bytesPerSample;
 
-        while (mInProgress.get() && totalBytesRead < bytesForMaxSeconds) {
-            int bytesRead = audioRecord.read(audioData, 0, bufferSize);
+        if (ring == null || ring.capacity() != samplesForMaxSeconds) {
+            ring = new PcmRingBuffer(samplesForMaxSeconds);
+        }
+        ring.clear();
+        long realtimeFrom = 0;  // first sample not yet sent for real-time processing
+        int peak = 0;
+
+        while (state.get() == State.RECORDING && ring.getWritten() < samplesForMaxSeconds) {
+            // Read straight into the ring, up to the end of its storage
+            ByteBuffer region = ring.writeRegion(samplesPerRead);
+            int bytesRead = audioRecord.read(region, region.remaining());
             if (bytesRead > 0) {
-                outputBuffer.write(audioData, 0, bytesRead);  // Save all bytes read up to maxSeconds
-                realtimeBuffer.write(audioData, 0, bytesRead); // Accumulate real-time audio data up to realtimeSeconds
-                totalBytesRead += bytesRead;
-
-                // Check if realtimeBuffer has more than realtimeSeconds of data
-                if (bytesForRealtimeSeconds != 0 && realtimeBuffer.size() >= bytesForRealtimeSeconds) {
-                    sendRealtimeData(realtimeBuffer.toByteArray()); // Send real-time data for processing
-                    realtimeBuffer.reset(); // Clear the buffer for the next accumulation
+                peak = Math.max(peak, peak(region, 0, bytesRead));
+                ring.commit(bytesRead / bytesPerSample);
+
+                // Send real-time data for processing every realtimeSeconds
+                if (samplesForRealtimeSeconds != 0 && ring.getWritten() - realtimeFrom >= samplesForRealtimeSeconds) {
+                    sendRealtimeData(realtimeFrom, ring.getWritten());
+                    realtimeFrom = ring.getWritten();
                 }
             } else {
                 Log.d(TAG, "AudioRecord error, bytes read: " + bytesRead);
@@ -181,14 +219,25 @@ public class Recorder {
         audioRecord.stop();
         audioRecord.release();
 
-        sendFinalData(outputBuffer.toByteArray());
+        // Send what is left since the last realtime block, so realtime listeners get the whole recording
+        if (samplesForRealtimeSeconds != 0 && ring.getWritten() > realtimeFrom) {
+            sendRealtimeData(realtimeFrom, ring.getWritten());
+        }
+
+        ByteBuffer samples = ring.linearize(samplesForMaxSeconds);  // recording stops when full, so never wrapped
+        sendFinalData(samples, peak);
         sendUpdate(MSG_RECORDING_DONE);
+        return new Audio(samples, peak);
+    }
 
-        // Notify the waiting thread that recording is complete
-        synchronized (fileSavedLock) {
-            fileSavedLock.notify(); // Notify that recording is finished
+    // Largest absolute sample value of PCM16 data in buffer[offset, offset + length)
+    private static int peak(ByteBuffer buffer, int offset, int length) {
+        int peak = 0;
+        for (int i = offset; i + 1 < offset + length; i += 2) {
+            int value = Math.abs(buffer.getShort(i));
+            if (value > peak) peak = value;
         }
-
+        return peak;
     }
 
 }
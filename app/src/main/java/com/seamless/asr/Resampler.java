@@ -0,0 +1,99 @@
+package com.seamless.asr;
+
+import java.nio.FloatBuffer;
+
+// Streaming sample rate conversion by a rational factor L/M with a polyphase windowed-sinc filter.
+// Upsampling by L, low pass filtering and downsampling by M are done in one step: every output sample is the
+// dot product of TAPS input samples with one of the L phases of the filter, nothing is computed for the zeros
+// that upsampling would insert or for the samples that downsampling drops.
+// Input can arrive in blocks of any size, the last TAPS - 1 samples are kept between calls. No Android dependencies.
+public class Resampler {
+    static final int TAPS = 32;                  // filter taps per phase, i.e. input samples per output sample
+    private static final double ROLLOFF = 0.92;  // passband edge as a fraction of the lower Nyquist frequency
+    private static final int BLOCK = 4096;
+
+    private final int up;     // L
+    private final int down;   // M
+    private final float[] filter;  // phase p is filter[p * TAPS .. p * TAPS + TAPS - 1], newest sample first
+    private final float[] input = new float[TAPS - 1 + BLOCK];
+    private int count = TAPS - 1;  // valid samples in input, starts with TAPS - 1 zeros of history
+    private int next = TAPS - 1;   // index in input of the newest sample of the next output
+    private int phase = 0;
+
+    public Resampler(int inputRate, int outputRate) {
+        if (inputRate <= 0 || outputRate <= 0) throw new IllegalArgumentException("Invalid rates " + inputRate + " -> " + outputRate);
+        int gcd = gcd(inputRate, outputRate);
+        up = outputRate / gcd;
+        down = inputRate / gcd;
+        filter = design(up, down);
+    }
+
+    public boolean isPassThrough() {
+        return up == down;
+    }
+
+    // Largest number of samples process() can write for count input samples
+    public int getMaxOutput(int count) {
+        return (int) ((long) (count + 1) * up / down) + 1;
+    }
+
+    // Converts in between position and limit and appends the result to out, which needs getMaxOutput(in.remaining())
+    public void process(FloatBuffer in, FloatBuffer out) {
+        if (isPassThrough()) {
+            out.put(in);
+            return;
+        }
+        while (in.hasRemaining()) {
+            int n = Math.min(in.remaining(), input.length - count);
+            in.get(input, count, n);
+            count += n;
+            while (next < count) {
+                int base = phase * TAPS;
+                float sum = 0;
+                for (int j = 0; j < TAPS; j++) sum += filter[base + j] * input[next - j];
+                out.put(sum);
+                phase += down;
+                next += phase / up;
+                phase %= up;
+            }
+            // Keep the history the next output needs, it may already lie beyond the samples received
+            int drop = Math.min(next - (TAPS - 1), count);
+            System.arraycopy(input, drop, input, 0, count - drop);
+            count -= drop;
+            next -= drop;
+        }
+    }
+
+    // Pushes the samples still inside the filter out with silence, call once after the last process()
+    public void flush(FloatBuffer out) {
+        if (isPassThrough()) return;
+        process(FloatBuffer.wrap(new float[TAPS]), out);
+    }
+
+    // Windowed sinc low pass at the lower of the two Nyquist frequencies, at the upsampled rate, split into phases
+    private static float[] design(int up, int down) {
+        int length = up * TAPS;
+        double cutoff = ROLLOFF * 0.5 / Math.max(up, down);  // cycles per upsampled sample
+        double center = (length - 1) / 2.0;
+        float[] filter = new float[length];
+        for (int k = 0; k < length; k++) {
+            double t = k - center;
+            double sinc = t == 0 ? 1 : Math.sin(2 * Math.PI * cutoff * t) / (2 * Math.PI * cutoff * t);
+            double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * k / (length - 1)) + 0.08 * Math.cos(4 * Math.PI * k / (length - 1));  // Blackman
+            // Gain up makes up for the zeros of upsampling, tap j of phase p weighs the input sample j steps back
+            int p = k % up;
+            int j = k / up;
+            filter[p * TAPS + j] = (float) (2 * cutoff * up * sinc * window);
+        }
+        return filter;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
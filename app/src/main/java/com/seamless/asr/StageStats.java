@@ -0,0 +1,53 @@
+package com.seamless.asr;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+// Counters of one AudioPipeline stage since start()
+public class StageStats {
+    public final String name;
+    public final int queued;         // items waiting in the input queue of the stage
+    public final int maxQueued;
+    public final int queueCapacity;  // 0 for the source, it has no input queue
+    public final long items;
+    public final double audioSeconds;
+    public final double busyMs;      // working, not waiting for input or for room in the next queue
+    public final double blockedMs;   // waiting for room in the next queue
+
+    StageStats(String name, int queued, int maxQueued, int queueCapacity, long items, double audioSeconds, double busyMs, double blockedMs) {
+        this.name = name;
+        this.queued = queued;
+        this.maxQueued = maxQueued;
+        this.queueCapacity = queueCapacity;
+        this.items = items;
+        this.audioSeconds = audioSeconds;
+        this.busyMs = busyMs;
+        this.blockedMs = blockedMs;
+    }
+
+    // Audio seconds per second of work, the stage with the lowest value limits the pipeline
+    public double getThroughput() {
+        return busyMs > 0 ? audioSeconds * 1000 / busyMs : 0;
+    }
+
+    JSONObject toJson() throws JSONException {
+        return new JSONObject()
+                .put("stage", name)
+                .put("queued", queued)
+                .put("max_queued", maxQueued)
+                .put("queue_capacity", queueCapacity)
+                .put("items", items)
+                .put("audio_s", audioSeconds)
+                .put("busy_ms", busyMs)
+                .put("blocked_ms", blockedMs)
+                .put("throughput", getThroughput());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: queue %d/%d (max %d), %d items, %.1f s audio, %.1fx, blocked %d ms",
+                name, queued, queueCapacity, maxQueued, items, audioSeconds, getThroughput(), Math.round(blockedMs));
+    }
+}
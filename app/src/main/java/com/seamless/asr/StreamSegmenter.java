@@ -0,0 +1,79 @@
+package com.seamless.asr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+// Turns 16 kHz mono audio into speech segments while it arrives, so a long file is translated as it is decoded
+// and never held in memory as a whole. Blocks are collected in a window of WINDOW_SAMPLES. When the window is full
+// VadSegmenter runs on it, the segments that end well before its end are passed on and the rest moves to the front
+// of the window to be completed by the next blocks. No Android dependencies.
+public class StreamSegmenter {
+    private static final int SAMPLE_RATE = 16000;
+    static final int WINDOW_SAMPLES = SAMPLE_RATE * 30;       // more than a segment, see VadSegmenter.MAX_SEGMENT_SAMPLES
+    private static final int OPEN_END_SAMPLES = SAMPLE_RATE;  // a segment ending this close to the window end may go on
+
+    public interface Listener {
+        // PCM16 of the segment between position and limit, a view of the window that is only valid during the call
+        void onSegment(ShortBuffer pcm) throws InterruptedException;
+    }
+
+    private final Listener listener;
+    private final ShortBuffer window = ByteBuffer.allocateDirect(WINDOW_SAMPLES * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+    private long samples;  // samples so far
+    private int segments;
+
+    public StreamSegmenter(Listener listener) {
+        this.listener = listener;
+    }
+
+    // 16 kHz mono PCM16 between position and limit
+    public void write(ShortBuffer pcm) throws InterruptedException {
+        samples += pcm.remaining();
+        while (pcm.hasRemaining()) {
+            ShortBuffer part = pcm.duplicate();
+            part.limit(part.position() + Math.min(part.remaining(), window.remaining()));
+            window.put(part);
+            pcm.position(part.position());
+            if (!window.hasRemaining()) segmentWindow(false);
+        }
+    }
+
+    // No more audio, passes on what is left in the window
+    public void finish() throws InterruptedException {
+        segmentWindow(true);
+    }
+
+    // Samples received so far
+    public long getSamples() {
+        return samples;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    private void segmentWindow(boolean last) throws InterruptedException {
+        ShortBuffer pcm = window.duplicate();
+        pcm.flip();
+        int length = pcm.remaining();
+        // On the last window quiet speech is not dropped if nothing was found before
+        List<VadSegmenter.Segment> found = last && segments == 0 ? VadSegmenter.segmentOrWhole(pcm) : VadSegmenter.segment(pcm);
+        int keepFrom = last ? length : length - OPEN_END_SAMPLES;
+        for (VadSegmenter.Segment segment : found) {
+            if (!last && segment.end > length - OPEN_END_SAMPLES) {
+                keepFrom = Math.min(keepFrom, segment.start);
+                break;
+            }
+            ShortBuffer part = pcm.duplicate();
+            part.limit(segment.end);
+            part.position(segment.start);
+            segments++;
+            listener.onSegment(part);
+        }
+        window.limit(length);
+        window.position(keepFrom);
+        window.compact();
+    }
+}
@@ -0,0 +1,139 @@
+package com.seamless.asr;
+
+import org.pytorch.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+// Translates audio while it is still being recorded. Every block from the recorder's realtime hook is
+// translated together with the end of the previous block, and the partial outputs are stitched together.
+// If the model falls behind, new audio is collected and sent as one larger window.
+// Audio is kept as views of the recorder's ring buffer and only copied when a window is converted to a tensor.
+public class StreamingTranslator {
+    private static final int OVERLAP_BYTES = 16000 * 2;  // 1 s of PCM16 mono at 16 kHz
+    private static final int MAX_IN_FLIGHT = 2;
+
+    public interface Listener {
+        void onPartialResult(String text);
+        void onFinalResult(String language, String text);
+    }
+
+    private final Listener listener;
+    private final TextStitcher stitcher = new TextStitcher();
+    private final PcmConverter converter = new PcmConverter();
+    private final List<ByteBuffer> pending = new ArrayList<>();  // blocks not yet translated
+    private List<ByteBuffer> tail = new ArrayList<>();           // end of the last window, OVERLAP_BYTES at most
+    private String language;
+    private int session = 0;
+    private int inFlight = 0;
+    private boolean finishing = false;
+
+    public StreamingTranslator(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Starts a new utterance, language null disables streaming
+    public synchronized void start(String language) {
+        this.language = language;
+        session++;
+        stitcher.reset();
+        pending.clear();
+        tail = new ArrayList<>();
+        inFlight = 0;
+        finishing = false;
+    }
+
+    public synchronized boolean isActive() {
+        return language != null;
+    }
+
+    // PCM16 view in native order as delivered by Recorder.onRealtimeDataReceived()
+    public synchronized void onAudio(ByteBuffer pcm) {
+        if (language == null || finishing) return;
+        pending.add(pcm);
+        if (inFlight < MAX_IN_FLIGHT) submitPending();
+    }
+
+    // No more audio, the final result follows once all windows are translated
+    public synchronized void finish() {
+        if (language == null) return;
+        finishing = true;
+        if (!pending.isEmpty()) submitPending();
+        else if (inFlight == 0) complete();
+    }
+
+    public synchronized void cancel() {
+        language = null;
+        session++;
+    }
+
+    private void submitPending() {
+        List<ByteBuffer> window = new ArrayList<>(tail);
+        window.addAll(pending);
+        pending.clear();
+        tail = tail(window);
+
+        int windowSession = session;
+        inFlight++;
+        TranslationScheduler.getInstance().enqueue(toTensor(window), language, new TranslationScheduler.Callback() {
+            @Override
+            public void onResult(TranslationScheduler.Request request, String lang, String text) {
+                onWindowDone(windowSession, text);
+            }
+
+            @Override
+            public void onError(TranslationScheduler.Request request, Exception e) {
+                if (!(e instanceof CancellationException)) onWindowDone(windowSession, null);
+            }
+        });
+    }
+
+    private synchronized void onWindowDone(int windowSession, String text) {
+        if (windowSession != session) return;
+        inFlight--;
+        if (text != null) listener.onPartialResult(stitcher.append(text));
+        if (!pending.isEmpty() && inFlight < MAX_IN_FLIGHT) submitPending();
+        else if (finishing && inFlight == 0) complete();
+    }
+
+    private void complete() {
+        String lang = language;
+        language = null;
+        listener.onFinalResult(lang, stitcher.getText());
+    }
+
+    // Views of the last OVERLAP_BYTES of window
+    private static List<ByteBuffer> tail(List<ByteBuffer> window) {
+        List<ByteBuffer> tail = new ArrayList<>();
+        int needed = OVERLAP_BYTES;
+        for (int i = window.size() - 1; i >= 0 && needed > 0; i--) {
+            ByteBuffer part = window.get(i).duplicate().order(window.get(i).order());
+            int n = Math.min(needed, part.remaining());
+            part.position(part.limit() - n);
+            tail.add(0, part.slice().order(part.order()));
+            needed -= n;
+        }
+        return tail;
+    }
+
+    // Normalized like RecordBuffer, every window as a stream of its own
+    private Tensor toTensor(List<ByteBuffer> window) {
+        int numSamples = 0;
+        int peak = 0;
+        for (ByteBuffer part : window) {
+            for (int i = part.position(); i + 1 < part.limit(); i += 2) peak = Math.max(peak, Math.abs(part.getShort(i)));
+            numSamples += part.remaining() / 2;
+        }
+        FloatBuffer data = Tensor.allocateFloatBuffer(numSamples);
+        for (ByteBuffer part : window) {
+            for (int i = part.position(); i + 1 < part.limit(); i += 2) data.put(part.getShort(i) / 32768f);
+        }
+        data.flip();
+        converter.applyGain(data, peak);
+        data.rewind();
+        return Tensor.fromBlob(data, new long[]{1, numSamples});
+    }
+}
@@ -0,0 +1,47 @@
+package com.seamless.asr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Joins the outputs of overlapping audio windows. Words at the start of a new part that repeat
+// the end of the text so far (the overlap was translated twice) are dropped.
+public class TextStitcher {
+    private static final int MAX_OVERLAP_WORDS = 8;
+
+    private final List<String> words = new ArrayList<>();
+
+    public void reset() {
+        words.clear();
+    }
+
+    public String append(String part) {
+        if (part == null || part.trim().isEmpty()) return getText();
+        List<String> next = Arrays.asList(part.trim().split("\\s+"));
+        int overlap = overlap(next);
+        words.addAll(next.subList(overlap, next.size()));
+        return getText();
+    }
+
+    public String getText() {
+        return String.join(" ", words);
+    }
+
+    // Longest run of words that ends the text so far and starts the next part
+    private int overlap(List<String> next) {
+        int max = Math.min(MAX_OVERLAP_WORDS, Math.min(words.size(), next.size()));
+        for (int n = max; n > 0; n--) {
+            boolean match = true;
+            for (int i = 0; i < n && match; i++) {
+                match = normalize(words.get(words.size() - n + i)).equals(normalize(next.get(i)));
+            }
+            if (match) return n;
+        }
+        return 0;
+    }
+
+    private static String normalize(String word) {
+        return word.replaceAll("\\p{IsPunctuation}", "").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,73 @@
+package com.seamless.asr;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory LRU cache of translations, keyed by the fingerprint of the recorded audio and the target language
+public class TranslationCache {
+    private static final int MAX_ENTRIES = 64;
+    private static TranslationCache instance;
+
+    private final Map<String, String> entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public static synchronized TranslationCache getInstance() {
+        if (instance == null) instance = new TranslationCache();
+        return instance;
+    }
+
+    private TranslationCache() {}
+
+    // Cached translation or null, counts a hit or a miss
+    public synchronized String get(long fingerprint, String language) {
+        String text = entries.get(key(fingerprint, language));
+        if (text != null) hits.incrementAndGet();
+        else misses.incrementAndGet();
+        return text;
+    }
+
+    public synchronized void put(long fingerprint, String language, String text) {
+        entries.put(key(fingerprint, language), text);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static String key(long fingerprint, String language) {
+        return Long.toHexString(fingerprint) + ":" + language;
+    }
+
+    // 64 bit FNV-1a style hash of the PCM bytes between position and limit, taken 8 bytes at a time
+    public static long fingerprint(ByteBuffer pcm) {
+        long hash = 0xcbf29ce484222325L;
+        if (pcm == null) return hash;
+        int i = pcm.position();
+        int end = pcm.limit();
+        for (; i + 8 <= end; i += 8) {
+            hash ^= pcm.getLong(i);
+            hash *= 0x100000001b3L;
+        }
+        for (; i < end; i++) {
+            hash ^= (pcm.get(i) & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ (end - pcm.position());
+    }
+}
@@ -0,0 +1,299 @@
+package com.seamless.asr;
+
+import android.util.Log;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Runs translations one at a time on a single worker thread.
+// A new request supersedes all older ones: queued requests are dropped and the result of a running one is discarded,
+// so two inferences never compete for the CPU and a stale result never overwrites a newer one.
+// Streaming windows are enqueued instead, they run in order behind each other until the next submit.
+// A request can target several languages. The input tensor is prepared once and reused for all of them,
+// results are reported per language as they finish.
+// The input can also be a list of speech segments. They are translated in order and the texts joined,
+// with the text so far reported after every segment. The model only exports forward(audio, language),
+// so the speech encoder still runs once per language.
+// Segments can also be passed as a supplier, then they are built on the worker when the request starts,
+// so preprocessing such as VAD and conversion never runs on the calling (UI) thread.
+public class TranslationScheduler {
+    private static final String TAG = "Inference";
+    private static final int QUEUE_CAPACITY = 8;
+    private static TranslationScheduler instance;
+
+    public interface Callback {
+        void onResult(Request request, String language, String text);
+        // Text of the segments translated so far, only called if the input has several segments
+        default void onPartialResult(Request request, String language, String text) {}
+        // Called with a CancellationException if the request was cancelled or superseded
+        void onError(Request request, Exception e);
+        // Called after the last language succeeded
+        default void onComplete(Request request) {}
+    }
+
+    public static class Request {
+        private final long id;
+        private final List<String> languages;
+        private final Supplier<List<Tensor>> inputs;
+        private final Callback callback;
+        private final long submittedNanos = System.nanoTime();
+        private volatile boolean cancelled = false;
+        private volatile boolean finished = false;
+
+        Request(long id, List<String> languages, Supplier<List<Tensor>> inputs, Callback callback) {
+            this.id = id;
+            this.languages = languages;
+            this.inputs = inputs;
+            this.callback = callback;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public List<String> getLanguages() {
+            return languages;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // A request that has not started is dropped, the result of a running request is discarded
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private synchronized void publish(String language, String text) {
+            if (!finished && callback != null) callback.onResult(this, language, text);
+        }
+
+        private synchronized void publishPartial(String language, String text) {
+            if (!finished && callback != null) callback.onPartialResult(this, language, text);
+        }
+
+        private synchronized void fail(Exception error) {
+            if (finished) return;
+            finished = true;
+            if (callback != null) callback.onError(this, error);
+        }
+
+        private synchronized void finish() {
+            if (finished) return;
+            finished = true;
+            if (callback != null) callback.onComplete(this);
+        }
+    }
+
+    private volatile Thread worker;
+    private final Queue<Runnable> deferred = new ConcurrentLinkedQueue<>();  // runAfterCurrent() tasks that found the queue full
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+            r -> worker = new Thread(r, "TranslationScheduler")) {
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            // Only the tasks deferred so far, one that defers itself again waits for the next task
+            for (int n = deferred.size(); n > 0; n--) {
+                Runnable task = deferred.poll();
+                if (task == null) break;
+                task.run();
+            }
+        }
+    };
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();  // queued or running requests and tasks
+    private final Set<Request> active = ConcurrentHashMap.newKeySet();  // requests that may still be running
+
+    public static synchronized TranslationScheduler getInstance() {
+        if (instance == null) instance = new TranslationScheduler();
+        return instance;
+    }
+
+    private TranslationScheduler() {}
+
+    // Queues a translation of input into language and supersedes all earlier requests
+    public Request submit(Tensor input, String language, Callback callback) {
+        return submit(input, Collections.singletonList(language), callback);
+    }
+
+    // Queues a translation of input into all languages, in the given order
+    public Request submit(Tensor input, List<String> languages, Callback callback) {
+        return submit(Collections.singletonList(input), languages, callback);
+    }
+
+    // Queues a translation of the segments into all languages, each language gets the joined text of all segments
+    public Request submit(List<Tensor> segments, List<String> languages, Callback callback) {
+        List<Tensor> inputs = new ArrayList<>(segments);
+        return submit(() -> inputs, languages, callback);
+    }
+
+    // Like submit(segments, ...), the segments are built on the worker when the request starts.
+    // No results are published if there are none.
+    public synchronized Request submit(Supplier<List<Tensor>> segments, List<String> languages, Callback callback) {
+        supersede();
+        return execute(segments, languages, callback);
+    }
+
+    // Queues a translation behind earlier requests without superseding them, used for streaming windows
+    public synchronized Request enqueue(Tensor input, String language, Callback callback) {
+        List<Tensor> inputs = Collections.singletonList(input);
+        return execute(() -> inputs, Collections.singletonList(language), callback);
+    }
+
+    private Request execute(Supplier<List<Tensor>> inputs, List<String> languages, Callback callback) {
+        Request request = new Request(nextId.incrementAndGet(), new ArrayList<>(languages), inputs, callback);
+        active.add(request);
+        pending.incrementAndGet();
+        try {
+            executor.execute(new Task(request));
+        } catch (RejectedExecutionException e) {
+            active.remove(request);
+            pending.decrementAndGet();
+            request.fail(e);
+        }
+        return request;
+    }
+
+    // True if no request is queued or running, so no tensor is in use
+    public boolean isIdle() {
+        return pending.get() == 0;
+    }
+
+    // True on the worker, where no other request can be running
+    public boolean isWorkerThread() {
+        return Thread.currentThread() == worker;
+    }
+
+    public synchronized void cancelAll() {
+        supersede();
+    }
+
+    // Runs task on the worker after the current translation, e.g. to release the model safely.
+    // If the queue is full the task runs right after the current one instead of being rejected.
+    public void runAfterCurrent(Runnable task) {
+        pending.incrementAndGet();
+        Runnable counted = () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Task failed", e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        };
+        try {
+            executor.execute(counted);
+        } catch (RejectedExecutionException e) {
+            deferred.add(counted);  // the queue is full, so the worker is busy and runs it in afterExecute()
+        }
+    }
+
+    // Runs task on the worker once no request is queued, e.g. for background work such as tuning.
+    // A request submitted later still waits for a running task, so long work should be split into short tasks.
+    public void runWhenIdle(Runnable task) {
+        runAfterCurrent(() -> {
+            if (executor.getQueue().stream().anyMatch(r -> r instanceof Task)) runWhenIdle(task);  // wait behind the requests
+            else task.run();
+        });
+    }
+
+    private void supersede() {
+        for (Request request : active) request.cancel();
+        executor.getQueue().removeIf(r -> {
+            if (!(r instanceof Task)) return false;
+            Request request = ((Task) r).request;
+            request.cancel();
+            request.fail(new CancellationException("Superseded"));
+            active.remove(request);
+            pending.decrementAndGet();
+            return true;
+        });
+    }
+
+    private class Task implements Runnable {
+        final Request request;
+
+        Task(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<Tensor> tensors = request.inputs.get();
+                if (tensors.isEmpty()) {
+                    request.finish();
+                    return;
+                }
+                Module module = ModelManager.getInstance().getModule().get();  // waits if the model is still loading
+                List<IValue> inputs = new ArrayList<>(tensors.size());
+                int audioSamples = 0;
+                for (Tensor tensor : tensors) {
+                    inputs.add(IValue.from(tensor));
+                    audioSamples += (int) tensor.shape()[1];
+                }
+                for (String language : request.languages) {
+                    String text = translate(module, inputs, audioSamples, language);
+                    InferenceMetrics.getInstance().recordResult(request.submittedNanos);
+                    request.publish(language, text);
+                }
+                request.finish();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Model could not be loaded", e);
+                request.fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                request.fail(e);
+            } catch (RuntimeException e) {
+                request.fail(e);
+            } finally {
+                active.remove(request);
+                pending.decrementAndGet();
+            }
+        }
+
+        // Joined text of all segments in language, recorded in InferenceMetrics
+        private String translate(Module module, List<IValue> inputs, int audioSamples, String language) {
+            InferenceMetrics metrics = InferenceMetrics.getInstance();
+            StringBuilder text = new StringBuilder();
+            long wallStart = System.nanoTime();
+            long cpuStart = InferenceMetrics.cpuTimeMs();
+            InferenceMetrics.HeapProbe heap = metrics.startHeapProbe();
+            try {
+                for (int i = 0; i < inputs.size(); i++) {
+                    if (request.isCancelled()) throw new CancellationException("Cancelled");
+                    Log.d(TAG, "Inference started, language: " + language + ", segment " + (i + 1) + "/" + inputs.size());
+                    IValue outputs = module.forward(inputs.get(i), IValue.from(language));
+                    Log.d(TAG, "Inference finished");
+                    if (request.isCancelled()) throw new CancellationException("Superseded while running");
+                    String segmentText = outputs.toStr().trim();
+                    if (text.length() > 0 && !segmentText.isEmpty()) text.append(' ');
+                    text.append(segmentText);
+                    if (inputs.size() > 1 && i < inputs.size() - 1) request.publishPartial(language, text.toString());
+                }
+            } finally {
+                heap.stop();
+            }
+            metrics.recordInference(request.id, language, inputs.size(), audioSamples,
+                    InferenceMetrics.millisSince(wallStart), InferenceMetrics.cpuTimeMs() - cpuStart, heap);
+            return text.toString();
+        }
+    }
+}
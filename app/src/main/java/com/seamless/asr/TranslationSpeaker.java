@@ -0,0 +1,319 @@
+package com.seamless.asr;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.BreakIterator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Speaks translations with the platform TTS engine. Texts are split into sentences, each sentence is synthesized to
+// a WAV file by the engine in the background and played by an AudioTrack on the playback thread in order, so the
+// first sentence plays while the next ones are synthesized, or still translated when update() gets partial results.
+// The WAV files stay in the cache directory per (sentence, language), at most MAX_CACHE_BYTES, so speaking a
+// translation again starts at once without the engine.
+public class TranslationSpeaker {
+    private static final String TAG = "TranslationSpeaker";
+    private static final long MAX_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final int WRITE_SAMPLES = 4096;  // per AudioTrack write, stop() takes effect between writes
+    private static TranslationSpeaker instance;
+
+    private static class Sentence {
+        final int session;
+        final String language;
+        final String text;
+        final File file;
+        final CompletableFuture<File> audio = new CompletableFuture<>();
+        boolean synthesized = false;
+
+        Sentence(int session, String language, String text, File file) {
+            this.session = session;
+            this.language = language;
+            this.text = text;
+            this.file = file;
+        }
+    }
+
+    private final File cacheDir;
+    private final TextToSpeech tts;
+    private final CompletableFuture<Boolean> ready = new CompletableFuture<>();
+    private final ExecutorService player = Executors.newSingleThreadExecutor(r -> new Thread(r, "TranslationSpeaker"));
+    private final Map<String, Sentence> synthesizing = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final short[] samples = new short[WRITE_SAMPLES];  // used by the playback thread only
+    private volatile int session = 0;
+    private volatile AudioTrack track;  // created and written by the playback thread
+    private int trackRate;
+    private int trackChannels;
+    private String engineLanguage;      // last language set on the engine
+    private String streamLanguage;      // translation in progress passed to update()
+    private int streamSpoken;           // characters of it already queued
+
+    public static synchronized TranslationSpeaker getInstance(Context context) {
+        if (instance == null) instance = new TranslationSpeaker(context.getApplicationContext());
+        return instance;
+    }
+
+    private TranslationSpeaker(Context context) {
+        cacheDir = new File(context.getCacheDir(), "tts");
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) Log.w(TAG, "Could not create " + cacheDir);
+        tts = new TextToSpeech(context, status -> ready.complete(status == TextToSpeech.SUCCESS));
+        tts.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                Sentence sentence = synthesizing.remove(utteranceId);
+                if (sentence == null) return;
+                // Written under a temporary name, so the cache never holds half a sentence
+                if (temporary(sentence.file).renameTo(sentence.file)) sentence.audio.complete(sentence.file);
+                else sentence.audio.completeExceptionally(new IOException("Could not store " + sentence.file));
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                Sentence sentence = synthesizing.remove(utteranceId);
+                if (sentence != null) sentence.audio.completeExceptionally(new IOException("Synthesis failed: " + sentence.text));
+            }
+        });
+        player.execute(this::trimCache);
+    }
+
+    // Speaks text in language after what is already queued
+    public synchronized void speak(String language, String text) {
+        enqueue(language, text, 0, true);
+    }
+
+    // Speaks the sentences of a translation in progress that are complete and not spoken yet, text is all of it so far.
+    // A new language starts a new translation, call stop() first to start over in the same language.
+    public synchronized void update(String language, String text) {
+        if (!language.equals(streamLanguage)) {
+            streamLanguage = language;
+            streamSpoken = 0;
+        }
+        streamSpoken = enqueue(language, text, streamSpoken, false);
+    }
+
+    // Speaks the rest of a translation passed to update(), or all of it if there was none
+    public synchronized void finish(String language, String text) {
+        if (!language.equals(streamLanguage)) streamSpoken = 0;
+        enqueue(language, text, streamSpoken, true);
+        streamLanguage = null;
+    }
+
+    // Silences playback and drops everything queued
+    public synchronized void stop() {
+        session++;
+        streamLanguage = null;
+        if (!synthesizing.isEmpty()) {
+            tts.stop();
+            for (Sentence sentence : synthesizing.values()) sentence.audio.cancel(false);
+            synthesizing.clear();
+        }
+        AudioTrack current = track;
+        if (current != null) {
+            current.pause();
+            current.flush();
+        }
+    }
+
+    public synchronized void shutdown() {
+        stop();
+        tts.shutdown();
+        player.shutdownNow();
+        synchronized (TranslationSpeaker.class) {
+            if (instance == this) instance = null;
+        }
+    }
+
+    // Queues the sentences of text from offset on, the last one only if complete. Returns the offset after them.
+    private int enqueue(String language, String text, int offset, boolean complete) {
+        if (offset > text.length()) return offset;  // shortened by a revision, the rest follows with finish()
+        BreakIterator sentences = BreakIterator.getSentenceInstance(locale(language));
+        sentences.setText(text);
+        int start = offset;
+        for (int end = sentences.following(offset); end != BreakIterator.DONE; end = sentences.next()) {
+            if (!complete && end == text.length()) break;  // may still go on
+            String sentence = text.substring(start, end).trim();
+            start = end;
+            if (!sentence.isEmpty()) enqueueSentence(language, sentence);
+        }
+        return start;
+    }
+
+    private void enqueueSentence(String language, String text) {
+        Sentence sentence = new Sentence(session, language, text, cacheFile(language, text));
+        if (sentence.file.exists()) {
+            sentence.audio.complete(sentence.file);
+        } else {
+            sentence.synthesized = true;
+            ready.thenAccept(ok -> synthesize(sentence, ok));
+        }
+        player.execute(() -> play(sentence));
+    }
+
+    private synchronized void synthesize(Sentence sentence, boolean ok) {
+        if (!ok) {
+            sentence.audio.completeExceptionally(new IOException("No TTS engine"));
+            return;
+        }
+        if (sentence.session != session) {
+            sentence.audio.cancel(false);
+            return;
+        }
+        if (!sentence.language.equals(engineLanguage)) {
+            int result = tts.setLanguage(locale(sentence.language));
+            if (result == TextToSpeech.LANG_MISSING_DATA || result == TextToSpeech.LANG_NOT_SUPPORTED) {
+                sentence.audio.completeExceptionally(new IOException("No TTS voice for " + sentence.language));
+                return;
+            }
+            engineLanguage = sentence.language;
+        }
+        String id = "tts-" + nextId.incrementAndGet();
+        synthesizing.put(id, sentence);
+        if (tts.synthesizeToFile(sentence.text, null, temporary(sentence.file), id) != TextToSpeech.SUCCESS) {
+            synthesizing.remove(id);
+            sentence.audio.completeExceptionally(new IOException("Synthesis not started: " + sentence.text));
+        }
+    }
+
+    // Runs on the playback thread, waits until the sentence is synthesized
+    private void play(Sentence sentence) {
+        if (sentence.session != session) return;
+        File file;
+        try {
+            file = sentence.audio.get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Not spoken: " + e.getCause().getMessage());
+            return;
+        } catch (CancellationException e) {
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (!file.setLastModified(System.currentTimeMillis())) Log.w(TAG, "Could not touch " + file);  // see trimCache()
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            WavReader.stream(in, new PcmSink() {
+                @Override
+                public void setFormat(int sampleRate, int channels) {
+                    openTrack(sampleRate, channels);
+                }
+
+                @Override
+                public void write(ShortBuffer interleaved) throws InterruptedException {
+                    while (interleaved.hasRemaining()) {
+                        if (sentence.session != session) throw new InterruptedException("Stopped");
+                        int n = Math.min(samples.length, interleaved.remaining());
+                        interleaved.get(samples, 0, n);
+                        track.write(samples, 0, n);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, "Could not play " + file, e);
+            if (!file.delete()) Log.w(TAG, "Could not delete " + file);
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Playback stopped");
+        }
+        if (sentence.synthesized) trimCache();
+    }
+
+    // Reuses the track while the format stays the same, so sentences follow each other without a gap
+    private void openTrack(int sampleRate, int channels) {
+        if (track == null || sampleRate != trackRate || channels != trackChannels) {
+            if (track != null) {
+                track.stop();  // plays what was written
+                track.release();
+            }
+            int mask = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+            track = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_MEDIA)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                            .setSampleRate(sampleRate)
+                            .setChannelMask(mask)
+                            .build())
+                    .setBufferSizeInBytes(AudioTrack.getMinBufferSize(sampleRate, mask, AudioFormat.ENCODING_PCM_16BIT))
+                    .setTransferMode(AudioTrack.MODE_STREAM)
+                    .build();
+            trackRate = sampleRate;
+            trackChannels = channels;
+        }
+        track.play();  // again after stop() paused it
+    }
+
+    // Deletes the least recently played files beyond MAX_CACHE_BYTES and unfinished ones
+    private void trimCache() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+            boolean unfinished = file.getName().endsWith(".tmp") && synthesizing.isEmpty();
+            if ((unfinished || total > MAX_CACHE_BYTES) && !file.delete()) Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    private File cacheFile(String language, String text) {
+        return new File(cacheDir, language + "-" + sha1(text) + ".wav");
+    }
+
+    private static File temporary(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private static String sha1(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The model uses ISO 639-3 codes like "spa", the TTS engine wants a Locale
+    private static Locale locale(String language) {
+        for (String iso : Locale.getISOLanguages()) {
+            Locale locale = new Locale(iso);
+            try {
+                if (locale.getISO3Language().equals(language)) return locale;
+            } catch (MissingResourceException e) {
+                // no three letter code, skip
+            }
+        }
+        return new Locale(language);
+    }
+}
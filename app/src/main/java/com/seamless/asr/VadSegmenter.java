@@ -0,0 +1,121 @@
+package com.seamless.asr;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Energy and zero-crossing based voice activity detection for 16 kHz PCM16.
+// Finds the speech in a recording, drops leading and trailing silence and long pauses,
+// and splits it into segments of at most MAX_SEGMENT_SAMPLES that can be translated one by one.
+public class VadSegmenter {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME = SAMPLE_RATE * 30 / 1000;       // 30 ms frames
+    private static final int MIN_THRESHOLD = 300;                    // RMS, about -40 dBFS
+    private static final float NOISE_FACTOR = 3.0f;                  // speech is this much louder than the noise floor
+    private static final float FRICATIVE_ZCR = 0.3f;                 // zero crossings per sample of s, f, sh...
+    private static final int MIN_PAUSE_FRAMES = 400 / 30;            // a shorter pause does not end a segment
+    private static final int MAX_MERGE_GAP_FRAMES = 1000 / 30;       // a longer pause is always cut out
+    private static final int PAD_FRAMES = 150 / 30;                  // silence kept around speech
+    public static final int MAX_SEGMENT_SAMPLES = SAMPLE_RATE * 20;
+
+    public static class Segment {
+        public final int start;  // first sample
+        public final int end;    // sample after the last one
+
+        Segment(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int length() {
+            return end - start;
+        }
+    }
+
+    // Speech segments of pcm between position and limit, sample indices are relative to position.
+    // Empty if no speech was found.
+    public static List<Segment> segment(ShortBuffer pcm) {
+        int numSamples = pcm.remaining();
+        int numFrames = (numSamples + FRAME - 1) / FRAME;
+        List<Segment> segments = new ArrayList<>();
+        if (numFrames == 0) return segments;
+
+        float[] rms = new float[numFrames];
+        float[] zcr = new float[numFrames];
+        int base = pcm.position();
+        for (int f = 0; f < numFrames; f++) {
+            int from = f * FRAME;
+            int to = Math.min(from + FRAME, numSamples);
+            long energy = 0;
+            int crossings = 0;
+            short previous = pcm.get(base + from);
+            for (int i = from; i < to; i++) {
+                short s = pcm.get(base + i);
+                energy += s * s;
+                if ((s ^ previous) < 0) crossings++;
+                previous = s;
+            }
+            rms[f] = (float) Math.sqrt((double) energy / (to - from));
+            zcr[f] = (float) crossings / (to - from);
+        }
+
+        // Noise floor from the quietest tenth of the frames
+        float[] sorted = rms.clone();
+        Arrays.sort(sorted);
+        float threshold = Math.max(MIN_THRESHOLD, sorted[numFrames / 10] * NOISE_FACTOR);
+
+        // Runs of speech frames, a pause shorter than MIN_PAUSE_FRAMES keeps the run going
+        List<int[]> runs = new ArrayList<>();
+        int runStart = -1;
+        int lastSpeech = -1;
+        for (int f = 0; f < numFrames; f++) {
+            boolean speech = rms[f] > threshold || (rms[f] > threshold / 2 && zcr[f] > FRICATIVE_ZCR);
+            if (!speech) continue;
+            if (runStart >= 0 && f - lastSpeech > MIN_PAUSE_FRAMES) {
+                runs.add(new int[]{runStart, lastSpeech + 1});
+                runStart = -1;
+            }
+            if (runStart < 0) runStart = f;
+            lastSpeech = f;
+        }
+        if (runStart >= 0) runs.add(new int[]{runStart, lastSpeech + 1});
+
+        // Join runs with short gaps as long as the result fits the model, then pad and split what is too long
+        int maxFrames = MAX_SEGMENT_SAMPLES / FRAME;
+        int[] current = null;
+        for (int[] run : runs) {
+            if (current != null && run[0] - current[1] <= MAX_MERGE_GAP_FRAMES && run[1] - current[0] + 2 * PAD_FRAMES <= maxFrames) {
+                current[1] = run[1];
+                continue;
+            }
+            if (current != null) addSegment(segments, current, rms, numSamples);
+            current = run;
+        }
+        if (current != null) addSegment(segments, current, rms, numSamples);
+        return segments;
+    }
+
+    // Speech segments, or the whole of pcm if no speech was found, so quiet speech is never dropped
+    public static List<Segment> segmentOrWhole(ShortBuffer pcm) {
+        List<Segment> segments = segment(pcm);
+        if (segments.isEmpty() && pcm.hasRemaining()) segments.add(new Segment(0, pcm.remaining()));
+        return segments;
+    }
+
+    private static void addSegment(List<Segment> segments, int[] run, float[] rms, int numSamples) {
+        int start = Math.max(0, run[0] - PAD_FRAMES);
+        int end = Math.min(rms.length, run[1] + PAD_FRAMES);
+        int maxFrames = MAX_SEGMENT_SAMPLES / FRAME;
+        // Cut overlong speech at the quietest frame of the second half of the allowed length
+        while (end - start > maxFrames) {
+            int cut = start + maxFrames / 2;
+            for (int f = cut; f < start + maxFrames; f++) {
+                if (rms[f] < rms[cut]) cut = f;
+            }
+            segments.add(new Segment(start * FRAME, cut * FRAME));
+            start = cut;
+        }
+        segments.add(new Segment(start * FRAME, Math.min(end * FRAME, numSamples)));
+    }
+}
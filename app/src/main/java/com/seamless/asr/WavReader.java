@@ -0,0 +1,168 @@
+package com.seamless.asr;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+// Reads PCM16 audio from a WAV file as 16 kHz mono, converting other rates and channel counts, or from a raw .pcm
+// file of 16 kHz mono in little endian byte order. stream() reads a WAV stream block by block without loading it.
+public class WavReader {
+    public static final int SAMPLE_RATE = 16000;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    private static final int RIFF = 0x46464952;
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746d66;
+    private static final int DATA = 0x61746164;
+    private static final int STREAM_BLOCK = 16384;  // bytes
+
+    public static ShortBuffer read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("File too large: " + file);
+            ByteBuffer data = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) break;
+            }
+            data.flip();
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".pcm")) return data.asShortBuffer();
+            return wavData(data, file);
+        }
+    }
+
+    // True if the first 12 bytes are a RIFF/WAVE header
+    public static boolean isWav(byte[] header) {
+        if (header.length < 12) return false;
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        return buffer.getInt(0) == RIFF && buffer.getInt(8) == WAVE;
+    }
+
+    // Reads a PCM16 WAV stream of any rate and channel count and writes it to out block by block
+    public static void stream(InputStream in, PcmSink out) throws IOException, InterruptedException {
+        DataInputStream data = new DataInputStream(in);
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        data.readFully(header.array());
+        if (!isWav(header.array())) throw new IOException("Not a WAV stream");
+        ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        boolean formatRead = false;
+        while (true) {
+            try {
+                data.readFully(chunk.array());
+            } catch (EOFException e) {
+                throw new IOException("No data chunk in WAV stream");
+            }
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xffffffffL;
+            if (id == FMT) {
+                ByteBuffer body = ByteBuffer.allocate((int) Math.min(size, 64)).order(ByteOrder.LITTLE_ENDIAN);
+                data.readFully(body.array());
+                skip(data, size - body.capacity() + (size & 1));
+                int[] format = checkFormat(body, "WAV stream");
+                out.setFormat(format[0], format[1]);
+                formatRead = true;
+            } else if (id == DATA) {
+                if (!formatRead) throw new IOException("No fmt chunk before data in WAV stream");
+                streamData(data, size, out);
+                return;
+            } else {
+                skip(data, size + (size & 1));  // chunks are padded to an even size
+            }
+        }
+    }
+
+    // Sample rate and channels of a PCM16 fmt chunk
+    private static int[] checkFormat(ByteBuffer fmt, String source) throws IOException {
+        int format = fmt.getShort(0) & 0xffff;
+        int channels = fmt.getShort(2);
+        int sampleRate = fmt.getInt(4);
+        int bitsPerSample = fmt.getShort(14);
+        if ((format != FORMAT_PCM && format != FORMAT_EXTENSIBLE) || channels < 1 || sampleRate <= 0 || bitsPerSample != 16) {
+            throw new IOException("Unsupported format in " + source + ": format " + format + ", " + channels + " channels, "
+                    + sampleRate + " Hz, " + bitsPerSample + " bit, expected PCM16");
+        }
+        return new int[]{sampleRate, channels};
+    }
+
+    // Streams size bytes of PCM16, or up to the end if the writer did not know the size
+    private static void streamData(DataInputStream in, long size, PcmSink out) throws IOException, InterruptedException {
+        ByteBuffer block = ByteBuffer.allocate(STREAM_BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+        long left = size == 0 || size == 0xffffffffL ? Long.MAX_VALUE : size;
+        int carry = 0;  // odd byte of the previous read
+        while (left > 0) {
+            int n = in.read(block.array(), carry, (int) Math.min(block.capacity() - carry, left));
+            if (n < 0) break;
+            left -= n;
+            int bytes = carry + n;
+            block.limit(bytes & ~1);
+            block.position(0);
+            out.write(block.asShortBuffer());
+            carry = bytes & 1;
+            if (carry == 1) block.array()[0] = block.array()[bytes - 1];
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    private static void skip(DataInputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    // The data chunk of a RIFF/WAVE file as 16 kHz mono PCM16
+    private static ShortBuffer wavData(ByteBuffer wav, File file) throws IOException {
+        if (wav.remaining() < 12 || wav.getInt(0) != RIFF || wav.getInt(8) != WAVE) {
+            throw new IOException("Not a WAV file: " + file);
+        }
+        int[] format = null;
+        int position = 12;
+        while (position + 8 <= wav.limit()) {
+            int id = wav.getInt(position);
+            int size = wav.getInt(position + 4);
+            int body = position + 8;
+            if (id == FMT) {
+                ByteBuffer fmt = wav.duplicate();
+                fmt.position(body);
+                format = checkFormat(fmt.slice().order(ByteOrder.LITTLE_ENDIAN), file.toString());
+            } else if (id == DATA) {
+                if (format == null) throw new IOException("No fmt chunk before data in " + file);
+                ByteBuffer data = wav.duplicate();
+                data.position(body);
+                data.limit(Math.min(wav.limit(), body + size) & ~1);
+                ShortBuffer pcm = data.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                return format[0] == SAMPLE_RATE && format[1] == 1 ? pcm : toMono16k(pcm, format[0], format[1]);
+            }
+            position = body + size + (size & 1);  // chunks are padded to an even size
+        }
+        throw new IOException("No data chunk in " + file);
+    }
+
+    // Downmixes and resamples interleaved PCM16 to 16 kHz mono
+    static ShortBuffer toMono16k(ShortBuffer interleaved, int sampleRate, int channels) {
+        PcmConverter converter = new PcmConverter();
+        FloatBuffer mono = FloatBuffer.allocate(interleaved.remaining() / channels);
+        converter.downmix(interleaved, channels, mono);
+        mono.flip();
+        Resampler resampler = new Resampler(sampleRate, SAMPLE_RATE);
+        FloatBuffer resampled = FloatBuffer.allocate(resampler.getMaxOutput(mono.remaining()) + resampler.getMaxOutput(Resampler.TAPS));
+        resampler.process(mono, resampled);
+        resampler.flush(resampled);
+        resampled.flip();
+        ShortBuffer pcm = ShortBuffer.allocate(resampled.remaining());
+        converter.toPcm16(resampled, pcm);
+        pcm.flip();
+        return pcm;
+    }
+}
@@ -1,6 +1,8 @@
 package com.seamless.utils;
 
 import android.app.Activity;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
@@ -8,115 +10,233 @@ import android.widget.Toast;
 import com.seamless.R;
 import com.seamless.databinding.ActivityDownloadBinding;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.math.BigInteger;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.function.Consumer;
 
 
 @SuppressWarnings("ResultOfMethodCallIgnored")
 public class Downloader {
-    static final String modelMultiLingualBase = "unity_on_device_s2t.ptl";
-    static final String modelMultiLingualBaseURL = "https://huggingface.co/facebook/seamless-m4t-unity-small-s2t/resolve/main/unity_on_device_s2t.ptl";
-    static final String modelMultiLingualBaseMD5 = "bf044d516f14d1ec8e603e8e666fee16";
-    static final long modelMultiLingualBaseSize = 504153032;
+    static final int downloadConnections = 4;
     static long downloadModelMultiLingualBaseSize = 0L;
     static boolean modelMultiLingualBaseFinished = false;
+    static volatile boolean downloadInProgress = false;
+    private static Thread checkThread;             // running model check, guarded by Downloader.class
+    private static Activity checkActivity;         // receives the result of the running check
+    private static VerifyListener checkListener;
+
+    public interface ProgressListener extends FileDigest.ProgressListener {}
+
+    public interface VerifyListener extends ProgressListener {
+        void onVerified(boolean valid);
+    }
 
     public static boolean checkModels(final Activity activity) {
-        File modelMultiLingualBaseFile = new File(activity.getExternalFilesDir(null) + "/" + modelMultiLingualBase);
-        String calcModelMultiLingualBaseMD5 = "";
+        return checkModels(activity, null);
+    }
+
+    // Runs the model check on a background thread, progress and result are delivered on the UI thread.
+    // A call while a check is running takes over its result instead of hashing the file a second time.
+    // Nothing is delivered to an activity that is finishing.
+    public static void checkModelsAsync(final Activity activity, VerifyListener listener) {
+        if (downloadInProgress) {  // never verify (and delete) a file that is still being written
+            activity.runOnUiThread(() -> listener.onVerified(false));
+            return;
+        }
+        synchronized (Downloader.class) {
+            checkActivity = activity;
+            checkListener = listener;
+            if (checkThread != null) return;
+            checkThread = new Thread(() -> {
+                boolean valid = false;
+                try {
+                    valid = checkModels(activity, percent -> deliverCheck(false, l -> l.onProgress(percent)));
+                } catch (RuntimeException e) {  // e.g. the file could not be read, it is kept and checked again next time
+                    Log.e("Seamless", "Model check failed", e);
+                } finally {
+                    boolean result = valid;
+                    deliverCheck(true, l -> l.onVerified(result));  // always, so the next call starts a new check
+                }
+            });
+            checkThread.start();
+        }
+    }
+
+    private static void deliverCheck(boolean last, Consumer<VerifyListener> call) {
+        Activity activity;
+        VerifyListener listener;
+        synchronized (Downloader.class) {
+            activity = checkActivity;
+            listener = checkListener;
+            if (last) {
+                checkThread = null;
+                checkActivity = null;
+                checkListener = null;
+            }
+        }
+        activity.runOnUiThread(() -> {
+            if (!activity.isFinishing() && !activity.isDestroyed()) call.accept(listener);
+        });
+    }
+
+    private static boolean checkModels(final Activity activity, ProgressListener listener) {
+        ModelRegistry.Variant variant = ModelRegistry.getSelected(activity);
+        String modelDigestAlgorithm = variant.digestAlgorithm;
+        String modelMultiLingualBaseDigest = variant.digest;
+        File modelMultiLingualBaseFile = new File(activity.getExternalFilesDir(null) + "/" + variant.fileName);
+        String calcModelMultiLingualBaseDigest = "";
         if (modelMultiLingualBaseFile.exists()) {
+            // Skip the full hash if the file is unchanged since it was last verified
+            if (isVerified(activity, modelMultiLingualBaseFile, modelMultiLingualBaseDigest)) return true;
             try {
-                calcModelMultiLingualBaseMD5 = calculateMD5(String.valueOf(Paths.get(modelMultiLingualBaseFile.getPath())));
+                calcModelMultiLingualBaseDigest = calculateDigest(String.valueOf(Paths.get(modelMultiLingualBaseFile.getPath())), modelDigestAlgorithm, listener);
             } catch (IOException | NoSuchAlgorithmException e) {
                 throw new RuntimeException(e);
             }
+            if (calcModelMultiLingualBaseDigest.equals(modelMultiLingualBaseDigest)) saveVerification(activity, modelMultiLingualBaseFile, calcModelMultiLingualBaseDigest);
         }
 
-        if (modelMultiLingualBaseFile.exists() && !(calcModelMultiLingualBaseMD5.equals(modelMultiLingualBaseMD5))) { modelMultiLingualBaseFile.delete(); modelMultiLingualBaseFinished = false;}
+        if (modelMultiLingualBaseFile.exists() && !(calcModelMultiLingualBaseDigest.equals(modelMultiLingualBaseDigest))) { modelMultiLingualBaseFile.delete(); clearVerification(activity); modelMultiLingualBaseFinished = false;}
 
-        return calcModelMultiLingualBaseMD5.equals(modelMultiLingualBaseMD5);
+        return calcModelMultiLingualBaseDigest.equals(modelMultiLingualBaseDigest);
     }
 
-    public static void downloadModels(final Activity activity, ActivityDownloadBinding binding) {
-        checkModels(activity);
+    private static boolean isVerified(Activity activity, File file, String expectedDigest) {
+        SharedPreferences prefManager = PreferenceManager.getDefaultSharedPreferences(activity);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return expectedDigest.equals(prefManager.getString("modelDigest", ""))
+                    && attrs.size() == prefManager.getLong("modelSize", -1)
+                    && attrs.lastModifiedTime().toMillis() == prefManager.getLong("modelLastModified", -1)
+                    && String.valueOf(attrs.fileKey()).equals(prefManager.getString("modelFileKey", ""));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static void saveVerification(Activity activity, File file, String digest) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(activity).edit();
+            editor.putLong("modelSize", attrs.size());
+            editor.putLong("modelLastModified", attrs.lastModifiedTime().toMillis());
+            editor.putString("modelFileKey", String.valueOf(attrs.fileKey()));
+            editor.putString("modelDigest", digest);
+            editor.apply();
+        } catch (IOException e) {
+            Log.w("Seamless", "Could not store model verification", e);
+        }
+    }
+
+    public static boolean isDownloading() {
+        return downloadInProgress;
+    }
+
+    static void clearVerification(Activity activity) {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(activity).edit();
+        editor.remove("modelSize");
+        editor.remove("modelLastModified");
+        editor.remove("modelFileKey");
+        editor.remove("modelDigest");
+        editor.apply();
+    }
 
+    // Checks the model off the UI thread first, an invalid file is deleted and downloaded again
+    public static void downloadModels(final Activity activity, ActivityDownloadBinding binding) {
         binding.downloadProgress.setProgress(0);
         binding.downloadButton.setEnabled(false);
+        checkModelsAsync(activity, new VerifyListener() {
+            @Override
+            public void onProgress(int percent) {
+                binding.downloadProgress.setProgress(percent);
+            }
+
+            @Override
+            public void onVerified(boolean valid) {
+                binding.downloadProgress.setProgress(0);
+                startDownload(activity, binding);
+            }
+        });
+    }
 
-        File modelMultiLingualBaseFile = new File(activity.getExternalFilesDir(null)+ "/" + modelMultiLingualBase);
+    private static void startDownload(final Activity activity, ActivityDownloadBinding binding) {
+        if (downloadInProgress) return;
+        ModelRegistry.Variant variant = ModelRegistry.getSelected(activity);
+        String modelDigestAlgorithm = variant.digestAlgorithm;
+        String modelMultiLingualBaseDigest = variant.digest;
+        long modelMultiLingualBaseSize = variant.size;
+        File modelMultiLingualBaseFile = new File(activity.getExternalFilesDir(null)+ "/" + variant.fileName);
         if (!modelMultiLingualBaseFile.exists()) {
             modelMultiLingualBaseFinished = false;
             Log.d("Seamless", "Model file does not exist");
+            downloadInProgress = true;
             Thread thread = new Thread(() -> {
                 try {
                     URL url;
 
-                    url = new URL(modelMultiLingualBaseURL);
-
-                    Log.d("Seamless", "Download model");
-
-                    URLConnection ucon = url.openConnection();
-                    ucon.setReadTimeout(5000);
-                    ucon.setConnectTimeout(10000);
-
-                    InputStream is = ucon.getInputStream();
-                    BufferedInputStream inStream = new BufferedInputStream(is, 1024 * 5);
-
-                    modelMultiLingualBaseFile.createNewFile();
+                    url = new URL(variant.url);
 
-                    FileOutputStream outStream = new FileOutputStream(modelMultiLingualBaseFile);
-                    byte[] buff = new byte[5 * 1024];
+                    Log.d("Seamless", "Download model " + variant.id);
 
-                    int len;
-                    while ((len = inStream.read(buff)) != -1) {
-                        outStream.write(buff, 0, len);
-                        if (modelMultiLingualBaseFile.exists()) downloadModelMultiLingualBaseSize = modelMultiLingualBaseFile.length();
+                    // Resumes from an earlier partial download if there is one
+                    ResumableDownload download = new ResumableDownload(url, modelMultiLingualBaseFile, modelMultiLingualBaseSize);
+                    download.setConnections(downloadConnections);
+                    download.setDigestAlgorithm(modelDigestAlgorithm);
+                    // Coalesce progress into at most 4 UI updates per second
+                    ProgressReporter progress = new ProgressReporter(modelMultiLingualBaseSize, 250, 1, p -> {
+                        downloadModelMultiLingualBaseSize = p.getBytes();
+                        String status = formatProgress(p);
+                        int percent = p.getPercent();
                         activity.runOnUiThread(() -> {
-                            binding.downloadSize.setText((downloadModelMultiLingualBaseSize)/1024/1024 + " MB");
-                            binding.downloadProgress.setProgress((int) (((double)(downloadModelMultiLingualBaseSize) / (modelMultiLingualBaseSize)) * 100));
+                            binding.downloadSize.setText(status);
+                            binding.downloadProgress.setProgress(percent);
                         });
-                    }
-                    outStream.flush();
-                    outStream.close();
-                    inStream.close();
-                    String calcModelMultiLingualBaseMD5="";
-                    if (modelMultiLingualBaseFile.exists()) {
-                        calcModelMultiLingualBaseMD5 = calculateMD5(String.valueOf(Paths.get(modelMultiLingualBaseFile.getPath())));
+                    });
+                    download.setListener((bytesDone, totalBytes) -> progress.set(bytesDone));
+                    download.run();
+                    progress.finish();
+                    Log.d("Seamless", String.format(Locale.US, "Download finished, %.1f MB/s", progress.getMegabytesPerSecond()));
+
+                    String calcModelMultiLingualBaseDigest="";
+                    if (download.getDigest() != null) {
+                        calcModelMultiLingualBaseDigest = download.getDigest();  // computed while downloading
+                    } else if (modelMultiLingualBaseFile.exists()) {
+                        calcModelMultiLingualBaseDigest = calculateDigest(String.valueOf(Paths.get(modelMultiLingualBaseFile.getPath())), modelDigestAlgorithm, null);
                     } else {
                         throw new IOException();  //throw exception if there is no modelMultiLingualSmallFile at this point
                     }
 
-                    if (!(calcModelMultiLingualBaseMD5.equals(modelMultiLingualBaseMD5))){
+                    if (!(calcModelMultiLingualBaseDigest.equals(modelMultiLingualBaseDigest))){
                         modelMultiLingualBaseFile.delete();
+                        clearVerification(activity);
                         modelMultiLingualBaseFinished = false;
                         activity.runOnUiThread(() -> {
                             Toast.makeText(activity, activity.getResources().getString(R.string.error_download), Toast.LENGTH_SHORT).show();
                             binding.downloadButton.setEnabled(true);
                         });
                     } else {
+                        saveVerification(activity, modelMultiLingualBaseFile, calcModelMultiLingualBaseDigest);
                         modelMultiLingualBaseFinished = true;
                         activity.runOnUiThread(() -> {
                             if (modelMultiLingualBaseFinished) binding.buttonStart.setVisibility(View.VISIBLE);
                         });
                     }
                 } catch (NoSuchAlgorithmException | IOException i) {
-                    modelMultiLingualBaseFile.delete();
+                    modelMultiLingualBaseFile.delete();  // the partial download is kept for the next attempt
                     modelMultiLingualBaseFinished = false;
                     activity.runOnUiThread(() -> {
                         Toast.makeText(activity, activity.getResources().getString(R.string.error_download), Toast.LENGTH_SHORT).show();
                         binding.downloadButton.setEnabled(true);
                     });
                     Log.w("Seamless", activity.getResources().getString(R.string.error_download), i);
+                } finally {
+                    downloadInProgress = false;
                 }
             });
             thread.start();
@@ -130,16 +250,22 @@ public class Downloader {
 
     }
 
+    static String formatProgress(ProgressReporter progress) {
+        String status = progress.getBytes() / 1024 / 1024 + " MB";
+        long eta = progress.getEtaSeconds();
+        if (eta < 0 || progress.getBytes() >= progress.getTotalBytes()) return status;
+        return status + String.format(Locale.US, "  %.1f MB/s  %d:%02d", progress.getMegabytesPerSecond(), eta / 60, eta % 60);
+    }
+
     public static String calculateMD5(String filePath) throws IOException, NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        try (InputStream is = new BufferedInputStream(new FileInputStream(filePath))) {
-            byte[] buffer = new byte[8192]; // 8KB buffer
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                md.update(buffer, 0, bytesRead);
-            }
-        }
-        byte[] hash = md.digest();
-        return new BigInteger(1, hash).toString(16);
+        return calculateMD5(filePath, null);
+    }
+
+    public static String calculateMD5(String filePath, ProgressListener listener) throws IOException, NoSuchAlgorithmException {
+        return calculateDigest(filePath, "MD5", listener);
+    }
+
+    public static String calculateDigest(String filePath, String algorithm, ProgressListener listener) throws IOException, NoSuchAlgorithmException {
+        return FileDigest.calculate(filePath, algorithm, listener);
     }
-}
\ No newline at end of file
+}
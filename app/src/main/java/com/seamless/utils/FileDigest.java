@@ -0,0 +1,40 @@
+package com.seamless.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Hex digest of a file, without Android dependencies so it can be benchmarked on the host
+public class FileDigest {
+
+    public interface ProgressListener {
+        void onProgress(int percent);
+    }
+
+    public static String calculate(String filePath, String algorithm, ProgressListener listener) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        long total = new File(filePath).length();
+        long done = 0;
+        int lastPercent = -1;
+        try (InputStream is = new BufferedInputStream(new FileInputStream(filePath))) {
+            byte[] buffer = new byte[8192]; // 8KB buffer
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                md.update(buffer, 0, bytesRead);
+                done += bytesRead;
+                int percent = total > 0 ? (int) (done * 100 / total) : 100;
+                if (listener != null && percent != lastPercent) {  // report only when the percentage changes
+                    lastPercent = percent;
+                    listener.onProgress(percent);
+                }
+            }
+        }
+        byte[] hash = md.digest();
+        return new BigInteger(1, hash).toString(16);
+    }
+}
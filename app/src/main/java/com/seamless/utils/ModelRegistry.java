@@ -0,0 +1,140 @@
+package com.seamless.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// The model variants the app can download and run. Unless the user picked one, the largest variant the device
+// can run close to real time is selected from its RAM and number of cores.
+// Only FULL is published so far, so on smaller devices selection falls back to it, see fitsDevice().
+public class ModelRegistry {
+    private static final String TAG = "ModelRegistry";
+    private static final String PREF_VARIANT = "modelVariant";
+    private static final long GB = 1024L * 1024 * 1024;
+    private static final List<String> LANGUAGES = Arrays.asList("eng", "spa", "por", "hin", "rus");
+
+    public static class Variant {
+        public final String id;
+        public final String name;
+        public final String fileName;
+        public final String url;              // null while the variant is not published
+        public final String digestAlgorithm;  // e.g. "MD5" or "SHA-256"
+        public final String digest;
+        public final long size;
+        public final List<String> languages;
+        public final long minRam;
+        public final int minCores;
+
+        Variant(String id, String name, String fileName, String url, String digestAlgorithm, String digest, long size,
+                List<String> languages, long minRam, int minCores) {
+            this.id = id;
+            this.name = name;
+            this.fileName = fileName;
+            this.url = url;
+            this.digestAlgorithm = digestAlgorithm;
+            this.digest = digest;
+            this.size = size;
+            this.languages = Collections.unmodifiableList(languages);
+            this.minRam = minRam;
+            this.minCores = minCores;
+        }
+
+        public boolean isAvailable() {
+            return url != null && digest != null && size > 0;
+        }
+
+        public boolean supports(String language) {
+            return languages.contains(language);
+        }
+
+        boolean fits(long totalRam, int cores) {
+            return totalRam >= minRam && cores >= minCores;
+        }
+    }
+
+    public static final Variant FULL = new Variant("full", "Seamless M4T unity small", "unity_on_device_s2t.ptl",
+            "https://huggingface.co/facebook/seamless-m4t-unity-small-s2t/resolve/main/unity_on_device_s2t.ptl",
+            "MD5", "bf044d516f14d1ec8e603e8e666fee16", 504153032, LANGUAGES, 6 * GB, 6);
+    // Dynamic int8 quantization of the linear layers, fill in url, digest and size once it is hosted
+    public static final Variant INT8 = new Variant("int8", "Seamless M4T unity small int8", "unity_on_device_s2t_int8.ptl",
+            null, "SHA-256", null, 0, LANGUAGES, 3 * GB, 4);
+    // Placeholder for a smaller model for low end devices
+    public static final Variant SMALL = new Variant("small", "Seamless M4T unity tiny", "unity_on_device_s2t_tiny.ptl",
+            null, "SHA-256", null, 0, LANGUAGES, 0, 1);
+
+    // Largest first, the first one that fits the device is picked
+    private static final List<Variant> VARIANTS = Arrays.asList(FULL, INT8, SMALL);
+
+    public static List<Variant> getVariants() {
+        return VARIANTS;
+    }
+
+    public static Variant get(String id) {
+        for (Variant variant : VARIANTS) {
+            if (variant.id.equals(id)) return variant;
+        }
+        return null;
+    }
+
+    // The largest available variant that fits, or the smallest available one if none does
+    public static Variant select(long totalRam, int cores) {
+        Variant smallest = null;
+        for (Variant variant : VARIANTS) {
+            if (!variant.isAvailable()) continue;
+            if (variant.fits(totalRam, cores)) return variant;
+            smallest = variant;
+        }
+        return smallest != null ? smallest : FULL;
+    }
+
+    public static Variant selectForDevice(Context context) {
+        long totalRam = getTotalRam(context);
+        int cores = Runtime.getRuntime().availableProcessors();
+        Variant variant = select(totalRam, cores);
+        Log.d(TAG, "Device has " + totalRam / 1024 / 1024 + " MB RAM and " + cores + " cores, selected " + variant.id);
+        if (!variant.fits(totalRam, cores)) {
+            Log.w(TAG, "No published variant fits this device, falling back to " + variant.id + ", which needs "
+                    + variant.minRam / GB + " GB RAM and " + variant.minCores + " cores");
+        }
+        return variant;
+    }
+
+    // False if the device is below the RAM or core count the variant needs to run close to real time
+    public static boolean fitsDevice(Context context, Variant variant) {
+        return variant.fits(getTotalRam(context), Runtime.getRuntime().availableProcessors());
+    }
+
+    private static long getTotalRam(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo.totalMem;
+    }
+
+    // The variant chosen by the user if it is available, otherwise the one selected for this device
+    public static Variant getSelected(Context context) {
+        Variant override = getOverride(context);
+        return override != null ? override : selectForDevice(context);
+    }
+
+    // null if the variant is selected automatically
+    public static Variant getOverride(Context context) {
+        SharedPreferences prefManager = PreferenceManager.getDefaultSharedPreferences(context);
+        Variant variant = get(prefManager.getString(PREF_VARIANT, ""));
+        return variant != null && variant.isAvailable() ? variant : null;
+    }
+
+    // null returns to automatic selection
+    public static void setOverride(Context context, Variant variant) {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(context).edit();
+        if (variant == null) editor.remove(PREF_VARIANT);
+        else editor.putString(PREF_VARIANT, variant.id);
+        editor.apply();
+    }
+}
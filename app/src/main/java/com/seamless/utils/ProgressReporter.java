@@ -0,0 +1,116 @@
+package com.seamless.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counts transferred bytes in memory and coalesces progress updates.
+// The first set() is taken as the starting point of the throughput measurement (e.g. a resumed download).
+// The listener is called at most once per interval, or earlier when the percentage advanced by percentStep.
+// Safe to update from several threads, the listener is called on the thread that triggers the update.
+// set() takes a total that only grows, such as ResumableDownload's. A smaller value is ignored only so that totals
+// from several threads that arrive out of order are fine, it cannot hide bytes that were counted twice.
+public class ProgressReporter {
+
+    public interface Listener {
+        void onProgress(ProgressReporter progress);
+    }
+
+    private final long totalBytes;
+    private final long intervalNanos;
+    private final int percentStep;
+    private final Listener listener;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong();
+    private volatile int lastPercent = 0;
+    private volatile boolean started = false;
+    private volatile long startNanos;
+    private volatile long startBytes;
+
+    public ProgressReporter(long totalBytes, long intervalMillis, int percentStep, Listener listener) {
+        this.totalBytes = totalBytes;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.percentStep = percentStep;
+        this.listener = listener;
+    }
+
+    // Restarts the throughput measurement, bytesDone is what was already present
+    public synchronized void start(long bytesDone) {
+        startNanos = System.nanoTime();
+        startBytes = bytesDone;
+        bytes.set(bytesDone);
+        started = true;
+        finish();
+    }
+
+    public void set(long bytesDone) {
+        if (!started) {
+            synchronized (this) {
+                if (!started) {
+                    start(bytesDone);
+                    return;
+                }
+            }
+        }
+        bytes.accumulateAndGet(bytesDone, Math::max);
+        maybeReport();
+    }
+
+    public void add(long delta) {
+        if (!started) {
+            synchronized (this) {
+                if (!started) start(0);
+            }
+        }
+        bytes.addAndGet(delta);
+        maybeReport();
+    }
+
+    // Reports the current state regardless of interval and step
+    public void finish() {
+        lastReport.set(System.nanoTime());
+        lastPercent = getPercent();
+        if (listener != null) listener.onProgress(this);
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getPercent() {
+        return totalBytes > 0 ? (int) (bytes.get() * 100 / totalBytes) : 0;
+    }
+
+    // Average since start() in bytes per second
+    public double getBytesPerSecond() {
+        if (!started) return 0;
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? (bytes.get() - startBytes) * 1e9 / elapsed : 0;
+    }
+
+    public double getMegabytesPerSecond() {
+        return getBytesPerSecond() / (1024 * 1024);
+    }
+
+    // Estimated seconds until totalBytes is reached, -1 while the rate is unknown
+    public long getEtaSeconds() {
+        double rate = getBytesPerSecond();
+        if (rate <= 0) return -1;
+        return (long) Math.ceil(Math.max(0, totalBytes - bytes.get()) / rate);
+    }
+
+    private void maybeReport() {
+        if (listener == null) return;
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        int percent = getPercent();
+        boolean due = now - last >= intervalNanos || (percentStep > 0 && percent >= lastPercent + percentStep);
+        if (due && lastReport.compareAndSet(last, now)) {  // only one thread reports per interval
+            lastPercent = percent;
+            listener.onProgress(this);
+        }
+    }
+}
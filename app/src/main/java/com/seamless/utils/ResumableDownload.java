@@ -0,0 +1,473 @@
+package com.seamless.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// Downloads a file into a preallocated "<target>.part" and resumes with HTTP Range requests after a dropped connection.
+// Every completed chunk is recorded with its CRC32 in "<target>.chunks", so a resume only refetches
+// the chunks that are missing or no longer match their checksum.
+// With more than one connection every connection fetches the next missing RUN_CHUNKS chunks in turn and writes them
+// with positional writes, so the connections stay close together in the file. Completed chunks are fed into the
+// file digest in order as they arrive, a chunk ahead of the digested prefix is held in memory until the prefix
+// reaches it. Only chunks kept from an earlier attempt, or beyond MAX_HELD_BYTES, are read back from the file.
+// Progress never goes back: bytes of a chunk that is fetched again after a dropped connection only count once
+// the new attempt gets past what the failed one had received.
+@SuppressWarnings("ResultOfMethodCallIgnored")
+public class ResumableDownload {
+
+    public interface Listener {
+        void onProgress(long bytesDone, long totalBytes);
+    }
+
+    static final int CHUNK_SIZE = 2 * 1024 * 1024;  // checksum granularity, bytes of an unfinished chunk are fetched again
+    static final int BUFFER_SIZE = 1024 * 1024;     // read and write size, CHUNK_SIZE must be a multiple of it
+    static final int RUN_CHUNKS = 2;                 // chunks per request with several connections
+    private static final long MAX_HELD_BYTES = 8L * CHUNK_SIZE;  // chunks waiting for the digested prefix
+    private static final int MAX_RETRIES = 5;
+
+    private final URL url;
+    private final File targetFile;
+    private final File partFile;
+    private final File journalFile;
+    private final long expectedSize;
+    private final int chunkCount;
+    private Listener listener;
+    private int connectTimeout = 10000;
+    private int readTimeout = 15000;
+    private int connections = 1;
+    int retryDelayMillis = 1000;  // times the number of failures in a row, shorter in tests
+    private String digestAlgorithm = null;
+    private String digest = null;
+
+    private final BitSet done = new BitSet();     // completed chunks, guarded by itself
+    private final BitSet claimed = new BitSet();  // chunks a connection is fetching, guarded by done
+    private final Object digestLock = new Object();
+    private MessageDigest fileDigest;             // digest of the chunks before digestedChunks, guarded by digestLock
+    private int digestedChunks;
+    private final Map<Integer, byte[]> held = new HashMap<>();  // completed chunks after the digested prefix
+    private long heldBytes;
+    int readBackChunks;  // chunks the digest read from the file in the last run()
+    private final AtomicLong transferred = new AtomicLong();  // bytes reported, see chunkProgress
+    private final long[] chunkProgress;  // bytes of each chunk counted in transferred, only touched by the connection that claimed it
+    private volatile boolean failed = false;
+    private FileChannel channel;
+    private Writer journal;
+
+    public ResumableDownload(URL url, File targetFile, long expectedSize) {
+        this.url = url;
+        this.targetFile = targetFile;
+        this.partFile = new File(targetFile.getPath() + ".part");
+        this.journalFile = new File(targetFile.getPath() + ".chunks");
+        this.expectedSize = expectedSize;
+        this.chunkCount = (int) ((expectedSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.chunkProgress = new long[chunkCount];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    // Number of parallel connections, each fetching its own byte range
+    public void setConnections(int connections) {
+        this.connections = Math.max(1, connections);
+    }
+
+    // Digest (e.g. "MD5" or "SHA-256") to compute while downloading, see getDigest()
+    public void setDigestAlgorithm(String digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    // Hex digest of the completed file, or null if it was not computed during the download
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getExpectedSize() {
+        return expectedSize;
+    }
+
+    // Downloads until the file is complete. Every connection is retried (and resumed) up to MAX_RETRIES times in a row without progress.
+    public void run() throws IOException {
+        loadVerifiedChunks();
+        failed = false;
+        digest = null;
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+             Writer journalWriter = new FileWriter(journalFile, true)) {
+            file.setLength(expectedSize);
+            channel = file.getChannel();
+            journal = journalWriter;
+
+            reportProgress(transferred.get());  // bytes kept from an earlier attempt
+            if (digestAlgorithm != null) {
+                synchronized (digestLock) {
+                    fileDigest = newDigest();
+                    digestedChunks = 0;
+                    readBackChunks = 0;
+                    catchUpDigest();  // prefix kept from an earlier attempt
+                }
+            }
+
+            int workers = Math.min(connections, chunkCount);
+            try {
+                if (workers <= 1) fetchChunks(chunkCount);  // one request for all missing chunks in a row
+                else fetchParallel(workers);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+
+            if (fileDigest != null) {
+                synchronized (digestLock) {
+                    catchUpDigest();
+                    if (digestedChunks < chunkCount) throw new IOException("Chunk " + digestedChunks + " missing from digest");
+                    digest = toHex(fileDigest.digest());
+                }
+            }
+        } finally {
+            channel = null;
+            journal = null;
+            synchronized (digestLock) {
+                fileDigest = null;
+                held.clear();
+                heldBytes = 0;
+            }
+        }
+        Files.move(partFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        journalFile.delete();
+    }
+
+    // Removes any partial download state
+    public void discard() {
+        partFile.delete();
+        journalFile.delete();
+    }
+
+    private void fetchParallel(int workers) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                futures.add(pool.submit(() -> {
+                    fetchChunks(RUN_CHUNKS);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) getResult(future);
+        } catch (IOException e) {
+            failed = true;  // stops the other connections at their next buffer
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Fetches the first missing chunks that no other connection is fetching, at most runChunks in a row per request,
+    // until none are left
+    private void fetchChunks(int runChunks) throws IOException {
+        int failures = 0;
+        while (!failed) {
+            int start;
+            int end;
+            synchronized (done) {
+                start = 0;
+                while (start < chunkCount && (done.get(start) || claimed.get(start))) start++;
+                if (start >= chunkCount) return;  // the rest is being fetched by other connections
+                end = start + 1;
+                while (end < chunkCount && end - start < runChunks && !done.get(end) && !claimed.get(end)) end++;
+                claimed.set(start, end);
+            }
+            try {
+                transfer(start, end);
+            } catch (IOException e) {
+                boolean progress;
+                synchronized (done) {
+                    progress = done.get(start);
+                }
+                if (progress) failures = 0;  // made progress, start counting again
+                if (failed || ++failures > MAX_RETRIES) throw e;
+                try {
+                    Thread.sleep((long) retryDelayMillis * failures);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } finally {
+                synchronized (done) {
+                    claimed.clear(start, end);
+                }
+            }
+        }
+        throw new IOException("Download cancelled");
+    }
+
+    // Fetches chunks [firstChunk, lastChunk) over one connection
+    private void transfer(int firstChunk, int lastChunk) throws IOException {
+        long start = (long) firstChunk * CHUNK_SIZE;
+        long end = Math.min((long) lastChunk * CHUNK_SIZE, expectedSize);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        if (start > 0 || end < expectedSize) connection.setRequestProperty("Range", "bytes=" + start + "-" + (end - 1));
+
+        boolean reusable = false;
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Unexpected HTTP response " + code);
+            }
+            if (code == HttpURLConnection.HTTP_PARTIAL) checkContentRange(connection.getHeaderField("Content-Range"), start, end);
+
+            try (InputStream in = connection.getInputStream()) {
+                if (code == HttpURLConnection.HTTP_OK) skipFully(in, start);  // server ignored the range
+                byte[] data = new byte[CHUNK_SIZE];  // the chunk being fetched, handed to the digest when complete
+                CRC32 crc = new CRC32();
+                long position = start;
+                int chunk = firstChunk;
+                long chunkFill = 0;
+                long chunkEnd = Math.min(position + CHUNK_SIZE, expectedSize);
+
+                while (position < end) {
+                    if (failed) throw new IOException("Download cancelled");
+                    int offset = (int) chunkFill;
+                    int fill = 0;
+                    int want = (int) Math.min(BUFFER_SIZE, chunkEnd - position);
+                    while (fill < want) {
+                        int n = in.read(data, offset + fill, want - fill);
+                        if (n == -1) throw new IOException("Connection closed at " + (position + fill) + " of " + expectedSize);
+                        fill += n;
+                    }
+                    crc.update(data, offset, fill);
+                    ByteBuffer buffer = ByteBuffer.wrap(data, offset, fill);
+                    while (buffer.hasRemaining()) channel.write(buffer, position + buffer.position() - offset);
+                    position += fill;
+                    chunkFill += fill;
+                    long fresh = chunkFill - chunkProgress[chunk];  // not counted by an earlier attempt
+                    if (fresh > 0) {
+                        chunkProgress[chunk] = chunkFill;
+                        reportProgress(transferred.addAndGet(fresh));
+                    }
+
+                    if (position == chunkEnd) {  // chunk complete, record its checksum
+                        completeChunk(chunk, crc.getValue(), data, (int) chunkFill);
+                        chunkFill = 0;
+                        crc.reset();
+                        chunk++;
+                        chunkEnd = Math.min(position + CHUNK_SIZE, expectedSize);
+                    }
+                }
+                // Nothing left unread, the connection can be kept alive for the next request
+                reusable = code == HttpURLConnection.HTTP_PARTIAL || end == expectedSize;
+            }
+        } finally {
+            if (!reusable) connection.disconnect();
+        }
+    }
+
+    // A partial response must start at the requested offset, otherwise its bytes would be written at the wrong place
+    private void checkContentRange(String header, long start, long end) throws IOException {
+        // bytes <first>-<last>/<length or *>
+        if (header != null && header.startsWith("bytes ")) {
+            int dash = header.indexOf('-');
+            int slash = header.indexOf('/');
+            try {
+                long first = Long.parseLong(header.substring(6, dash).trim());
+                long last = Long.parseLong(header.substring(dash + 1, slash < 0 ? header.length() : slash).trim());
+                String length = slash < 0 ? "*" : header.substring(slash + 1).trim();
+                if (first == start && last >= end - 1 && (length.equals("*") || Long.parseLong(length) == expectedSize)) return;
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                // malformed, rejected below
+            }
+        }
+        throw new IOException("Content-Range " + header + " does not match requested bytes " + start + "-" + (end - 1));
+    }
+
+    // Records the chunk and passes it to the digest. Both happen under digestLock, so catchUpDigest() never reads
+    // back a chunk that is about to be handed over.
+    private void completeChunk(int chunk, long checksum, byte[] data, int length) throws IOException {
+        synchronized (digestLock) {
+            synchronized (done) {
+                journal.write(chunk + " " + checksum + "\n");
+                journal.flush();
+                done.set(chunk);
+            }
+            if (fileDigest == null || chunk < digestedChunks) return;
+            if (chunk == digestedChunks) {
+                fileDigest.update(data, 0, length);
+                digestedChunks++;
+                catchUpDigest();
+            } else if (heldBytes + length <= MAX_HELD_BYTES) {
+                held.put(chunk, Arrays.copyOf(data, length));
+                heldBytes += length;
+            }  // else read back once the prefix reaches it
+        }
+    }
+
+    private void reportProgress(long bytesDone) {
+        if (listener != null) listener.onProgress(bytesDone, expectedSize);
+    }
+
+    // Feeds the completed chunks that directly follow the digested prefix into the digest, from memory if they
+    // are held, otherwise from the file. Called with digestLock held.
+    private void catchUpDigest() throws IOException {
+        ByteBuffer buffer = null;
+        while (digestedChunks < chunkCount) {
+            synchronized (done) {
+                if (!done.get(digestedChunks)) break;
+            }
+            byte[] data = held.remove(digestedChunks);
+            if (data != null) {
+                fileDigest.update(data);
+                heldBytes -= data.length;
+            } else {
+                if (buffer == null) buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                digestChunk(digestedChunks, fileDigest, buffer);
+                readBackChunks++;
+            }
+            digestedChunks++;
+        }
+    }
+
+    private void digestChunk(int chunk, MessageDigest md, ByteBuffer buffer) throws IOException {
+        long position = (long) chunk * CHUNK_SIZE;
+        long end = Math.min(position + CHUNK_SIZE, expectedSize);
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+            int n = channel.read(buffer, position);
+            if (n <= 0) throw new IOException("Unexpected end of " + partFile);
+            md.update(buffer.array(), 0, n);
+            position += n;
+        }
+    }
+
+    private MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Checks the recorded chunks against the partial file. Chunks that do not match are fetched again.
+    private void loadVerifiedChunks() throws IOException {
+        synchronized (done) {
+            done.clear();
+        }
+        transferred.set(0);
+        Arrays.fill(chunkProgress, 0);
+        if (!partFile.exists()) {
+            journalFile.delete();
+            return;
+        }
+        Map<Integer, Long> checksums = readJournal();
+        List<String> valid = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(partFile, "r")) {
+            FileChannel in = file.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+            for (Map.Entry<Integer, Long> entry : checksums.entrySet()) {
+                int chunk = entry.getKey();
+                long start = (long) chunk * CHUNK_SIZE;
+                long end = Math.min(start + CHUNK_SIZE, expectedSize);
+                if (chunk >= chunkCount || in.size() < end) continue;
+                crc.reset();
+                long position = start;
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                    int n = in.read(buffer, position);
+                    if (n <= 0) break;
+                    crc.update(buffer.array(), 0, n);
+                    position += n;
+                }
+                if (position < end || crc.getValue() != entry.getValue()) continue;
+                synchronized (done) {
+                    done.set(chunk);
+                }
+                transferred.addAndGet(end - start);
+                chunkProgress[chunk] = end - start;
+                valid.add(chunk + " " + entry.getValue());
+            }
+        }
+        try (Writer writer = new FileWriter(journalFile, false)) {  // also drops a torn last line
+            for (String line : valid) writer.write(line + "\n");
+        }
+    }
+
+    private Map<Integer, Long> readJournal() throws IOException {
+        Map<Integer, Long> checksums = new HashMap<>();
+        if (!journalFile.exists()) return checksums;
+        try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                try {
+                    if (parts.length == 2) checksums.put(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+                } catch (NumberFormatException e) {
+                    break;  // torn write at the end of the journal
+                }
+            }
+        }
+        return checksums;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) throw new IOException("Connection closed while skipping");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Same format as FileDigest.calculate()
+    static String toHex(byte[] hash) {
+        return new BigInteger(1, hash).toString(16);
+    }
+}
@@ -0,0 +1,61 @@
+package com.seamless.benchmark;
+
+import com.seamless.utils.FileDigest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Model verification: digest of a file the size of the model (504 MB) and a small one.
+// The file is written once per trial and is usually in the page cache, so this measures the hashing, not the flash.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DigestBenchmark {
+    @Param({"16", "500"})
+    public int megabytes;
+
+    @Param({"MD5", "SHA-256"})
+    public String algorithm;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("model", ".ptl");
+        byte[] block = new byte[1 << 20];
+        new Random(megabytes).nextBytes(block);
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < megabytes; i++) out.write(block);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String calculateDigest() throws Exception {
+        return FileDigest.calculate(file.getPath(), algorithm, null);
+    }
+}
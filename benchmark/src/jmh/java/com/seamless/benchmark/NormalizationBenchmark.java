@@ -0,0 +1,91 @@
+package com.seamless.benchmark;
+
+import com.seamless.asr.AutomaticGain;
+import com.seamless.asr.GainStage;
+import com.seamless.asr.PcmConverter;
+import com.seamless.asr.PeakGain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Level normalization of a recording before inference: peak normalization, which needs the whole recording for its
+// peak, against AutomaticGain, which works block by block as audio arrives. PCM16 is converted into a reused buffer
+// and the gain runs over it in place, like PcmConverter.normalize(). See NormalizationQuality for the output levels.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NormalizationBenchmark {
+    private static final int BLOCK = 1280;  // a streaming block, about what AudioRecord delivers per read
+
+    @Param({"1", "10", "60"})
+    public int seconds;
+
+    private ShortBuffer pcm;
+    private int peak;
+    private FloatBuffer samples;
+    private final PcmConverter converter = new PcmConverter();
+    private final PeakGain peakGain = new PeakGain();
+    private final AutomaticGain automaticGain = new AutomaticGain();
+
+    @Setup
+    public void setup() {
+        ByteBuffer audio = SyntheticAudio.pcm(seconds);
+        pcm = audio.asShortBuffer();
+        peak = SyntheticAudio.peak(audio);
+        samples = ByteBuffer.allocateDirect(pcm.capacity() * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Benchmark
+    public FloatBuffer peak() {
+        return normalize(peakGain, peak);
+    }
+
+    @Benchmark
+    public FloatBuffer automaticGain() {
+        return normalize(automaticGain, -1);
+    }
+
+    // The same gain fed one BLOCK at a time, as a streaming stage would
+    @Benchmark
+    public FloatBuffer automaticGainBlocks() {
+        convert();
+        automaticGain.reset(-1);
+        FloatBuffer out = samples.duplicate();
+        FloatBuffer in = samples.duplicate();
+        int limit = in.limit();
+        while (in.position() < limit) {
+            in.limit(Math.min(limit, in.position() + BLOCK));
+            automaticGain.process(in, out);
+        }
+        automaticGain.flush(out);
+        return out;
+    }
+
+    private FloatBuffer normalize(GainStage gain, int peakValue) {
+        convert();
+        gain.reset(peakValue);
+        FloatBuffer out = samples.duplicate();
+        gain.process(samples, out);
+        gain.flush(out);
+        return out;
+    }
+
+    private void convert() {
+        samples.clear();
+        pcm.rewind();
+        converter.convert(pcm, samples, 1.0f / 32768);
+        samples.flip();
+    }
+}
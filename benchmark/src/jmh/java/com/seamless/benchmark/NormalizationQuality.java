@@ -0,0 +1,102 @@
+package com.seamless.benchmark;
+
+import com.seamless.asr.AutomaticGain;
+import com.seamless.asr.GainStage;
+import com.seamless.asr.PeakGain;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Locale;
+
+// Output levels of peak normalization and AutomaticGain on synthetic recordings with the problems peak normalization
+// has: a click, and a speaker who is quiet first and loud later. Prints per recording the mean level of every burst
+// of speech, the spread between the quietest and the loudest burst, clipped samples and how much audio has to be
+// recorded before the first normalized sample is known. Run after ./gradlew :benchmark:jmhJar with
+// java -cp benchmark/build/libs/benchmark-jmh.jar com.seamless.benchmark.NormalizationQuality
+public final class NormalizationQuality {
+    private static final int SAMPLE_RATE = SyntheticAudio.SAMPLE_RATE;
+    private static final int SECONDS = 10;
+    private static final double BURST_SECONDS = 2.5;  // SyntheticAudio speaks for 2 s of every 2.5 s
+    private static final double SPEECH_SECONDS = 2.0;
+
+    private NormalizationQuality() {}
+
+    public static void main(String[] args) {
+        System.out.println("recording        method  burst levels dBFS                         spread dB  clipped  first output");
+        compare("clean", clean());
+        compare("click", click());
+        compare("quiet then loud", quietThenLoud());
+        compare("quiet", quiet());
+    }
+
+    private static void compare(String name, float[] input) {
+        report(name, "peak", input, new PeakGain(), peak(input));
+        report(name, "agc", input, new AutomaticGain(), -1);
+    }
+
+    private static void report(String name, String method, float[] input, GainStage gain, int peak) {
+        FloatBuffer in = FloatBuffer.wrap(input.clone());
+        FloatBuffer out = FloatBuffer.allocate(input.length);
+        gain.reset(peak);
+        gain.process(in, out);
+        gain.flush(out);
+        float[] output = out.array();
+
+        StringBuilder levels = new StringBuilder();
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        int bursts = (int) (SECONDS / BURST_SECONDS);
+        for (int b = 0; b < bursts; b++) {
+            int from = (int) (b * BURST_SECONDS * SAMPLE_RATE);
+            double level = rmsDb(output, from, from + (int) (SPEECH_SECONDS * SAMPLE_RATE));
+            levels.append(String.format(Locale.ROOT, "%7.1f", level));
+            min = Math.min(min, level);
+            max = Math.max(max, level);
+        }
+        int clipped = 0;
+        for (float value : output) if (Math.abs(value) >= 1) clipped++;
+        // Peak normalization needs the peak of the whole recording before it can scale the first sample
+        double firstOutputMs = gain instanceof PeakGain ? SECONDS * 1000.0 : gain.getLatency() * 1000.0 / SAMPLE_RATE;
+        System.out.printf(Locale.ROOT, "%-16s %-7s %-41s %9.1f %8d %9.0f ms%n", name, method, levels, max - min, clipped, firstOutputMs);
+    }
+
+    private static double rmsDb(float[] samples, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) sum += samples[i] * samples[i];
+        return 10 * Math.log10(sum / (to - from) + 1e-12);
+    }
+
+    private static float[] clean() {
+        ByteBuffer pcm = SyntheticAudio.pcm(SECONDS);
+        float[] samples = new float[pcm.limit() / 2];
+        for (int i = 0; i < samples.length; i++) samples[i] = pcm.getShort(2 * i) / 32768f;
+        return samples;
+    }
+
+    // 5 ms of a full scale click in the second burst
+    private static float[] click() {
+        float[] samples = clean();
+        int at = (int) (3.0 * SAMPLE_RATE);
+        for (int i = 0; i < SAMPLE_RATE / 200; i++) samples[at + i] = i % 2 == 0 ? 0.999f : -0.999f;
+        return samples;
+    }
+
+    // -20 dB for the first half
+    private static float[] quietThenLoud() {
+        float[] samples = clean();
+        for (int i = 0; i < samples.length / 2; i++) samples[i] *= 0.1f;
+        return samples;
+    }
+
+    private static float[] quiet() {
+        float[] samples = clean();
+        for (int i = 0; i < samples.length; i++) samples[i] *= 0.05f;
+        return samples;
+    }
+
+    private static int peak(float[] samples) {
+        float peak = 0;
+        for (float value : samples) peak = Math.max(peak, Math.abs(value));
+        return Math.round(peak * 32768);
+    }
+}
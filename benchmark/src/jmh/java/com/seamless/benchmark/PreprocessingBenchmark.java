@@ -0,0 +1,50 @@
+package com.seamless.benchmark;
+
+import com.seamless.asr.RecordBuffer;
+import com.seamless.asr.TranslationCache;
+import com.seamless.asr.VadSegmenter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// What happens to a recording before inference: PCM16 to normalized float, cache fingerprint and VAD
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PreprocessingBenchmark {
+    @Param({"1", "10", "60"})
+    public int seconds;
+
+    private ByteBuffer pcm;
+
+    @Setup
+    public void setup() {
+        pcm = SyntheticAudio.pcm(seconds);
+        RecordBuffer.setOutputBuffer(pcm, SyntheticAudio.peak(pcm));
+    }
+
+    @Benchmark
+    public float[] getSamples() {
+        return RecordBuffer.getSamples();
+    }
+
+    @Benchmark
+    public long fingerprint() {
+        return TranslationCache.fingerprint(pcm);
+    }
+
+    @Benchmark
+    public List<VadSegmenter.Segment> vadSegment() {
+        return VadSegmenter.segment(pcm.asShortBuffer());
+    }
+}
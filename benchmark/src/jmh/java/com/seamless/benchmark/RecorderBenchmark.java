@@ -0,0 +1,84 @@
+package com.seamless.benchmark;
+
+import com.seamless.asr.PcmRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Chunk accumulation of Recorder.recordAudio(): AudioRecord reads of READ_BYTES appended to the recording,
+// with a realtime block every REALTIME_SECONDS. The ring buffer used by Recorder is compared with
+// the ByteArrayOutputStream accumulation it replaced.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecorderBenchmark {
+    private static final int READ_BYTES = 1280;  // AudioRecord.getMinBufferSize() for 16 kHz mono PCM16 on most devices
+    private static final int REALTIME_SECONDS = 3;
+    private static final int MAX_SECONDS = 60;
+
+    @Param({"1", "10", "60"})
+    public int seconds;
+
+    private ByteBuffer source;
+    private byte[] read;
+    private PcmRingBuffer ring;
+
+    @Setup
+    public void setup() {
+        source = SyntheticAudio.pcm(seconds);
+        read = new byte[READ_BYTES];
+        ring = new PcmRingBuffer(MAX_SECONDS * SyntheticAudio.SAMPLE_RATE);
+    }
+
+    @Benchmark
+    public void ringBuffer(Blackhole blackhole) {
+        int realtimeSamples = REALTIME_SECONDS * SyntheticAudio.SAMPLE_RATE;
+        ring.clear();
+        long realtimeFrom = 0;
+        ByteBuffer input = source.duplicate();
+        while (input.hasRemaining()) {
+            ByteBuffer region = ring.writeRegion(READ_BYTES / 2);
+            int n = Math.min(region.remaining(), input.remaining());
+            ByteBuffer chunk = input.slice();
+            chunk.limit(n);
+            region.put(chunk);  // stands in for AudioRecord.read()
+            input.position(input.position() + n);
+            ring.commit(n / 2);
+            if (ring.getWritten() - realtimeFrom >= realtimeSamples) {
+                blackhole.consume(ring.view(realtimeFrom, (int) (ring.getWritten() - realtimeFrom)));
+                realtimeFrom = ring.getWritten();
+            }
+        }
+        blackhole.consume(ring.linearize(MAX_SECONDS * SyntheticAudio.SAMPLE_RATE));
+    }
+
+    @Benchmark
+    public void byteArrayOutputStream(Blackhole blackhole) {
+        int realtimeBytes = REALTIME_SECONDS * SyntheticAudio.SAMPLE_RATE * 2;
+        ByteArrayOutputStream recording = new ByteArrayOutputStream();
+        ByteArrayOutputStream realtime = new ByteArrayOutputStream();
+        ByteBuffer input = source.duplicate();
+        while (input.hasRemaining()) {
+            int n = Math.min(READ_BYTES, input.remaining());
+            input.get(read, 0, n);  // stands in for AudioRecord.read()
+            recording.write(read, 0, n);
+            realtime.write(read, 0, n);
+            if (realtime.size() >= realtimeBytes) {
+                blackhole.consume(realtime.toByteArray());
+                realtime.reset();
+            }
+        }
+        blackhole.consume(recording.toByteArray());
+    }
+}
@@ -0,0 +1,34 @@
+package com.seamless.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+// Recording-like PCM16 at 16 kHz: 2 s of speech-like modulated tones alternating with 0.5 s pauses over a noise floor
+final class SyntheticAudio {
+    static final int SAMPLE_RATE = 16000;
+
+    private SyntheticAudio() {}
+
+    // Direct buffer in native order, like the view Recorder delivers
+    static ByteBuffer pcm(int seconds) {
+        int numSamples = seconds * SAMPLE_RATE;
+        ByteBuffer pcm = ByteBuffer.allocateDirect(numSamples * 2).order(ByteOrder.nativeOrder());
+        Random random = new Random(seconds);
+        for (int i = 0; i < numSamples; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double value = random.nextGaussian() * 60;
+            if (t % 2.5 < 2.0) {
+                value += 6000 * Math.sin(2 * Math.PI * 180 * t) * (0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * t));
+            }
+            pcm.putShort(2 * i, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+        }
+        return pcm;
+    }
+
+    static int peak(ByteBuffer pcm) {
+        int peak = 0;
+        for (int i = 0; i + 1 < pcm.limit(); i += 2) peak = Math.max(peak, Math.abs(pcm.getShort(i)));
+        return peak;
+    }
+}
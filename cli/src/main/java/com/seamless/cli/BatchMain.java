@@ -0,0 +1,61 @@
+package com.seamless.cli;
+
+import com.seamless.asr.BatchTranslator;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// BatchTranslator on the host. The model is replaced by a stand-in that takes audio length / rtf to "translate"
+// a segment and returns its length, so the numbers show the overhead and parallelism of the pipeline itself.
+// Like on the device, calls into the stand-in are serialized unless --concurrent is given.
+public class BatchMain {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: BatchMain <dir> [--languages eng,spa] [--workers 2] [--output <dir>/results.jsonl] [--rtf 2.0] [--concurrent]");
+            System.exit(2);
+        }
+        File dir = new File(args[0]);
+        List<String> languages = Arrays.asList("eng");
+        int workers = 2;
+        File output = new File(dir, "results.jsonl");
+        double rtf = 2.0;
+        boolean concurrent = false;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--languages": languages = Arrays.asList(args[++i].split(",")); break;
+                case "--workers": workers = Integer.parseInt(args[++i]); break;
+                case "--output": output = new File(args[++i]); break;
+                case "--rtf": rtf = Double.parseDouble(args[++i]); break;
+                case "--concurrent": concurrent = true; break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        BatchTranslator.Backend standIn = standIn(rtf);
+        Object lock = new Object();
+        BatchTranslator.Backend backend = concurrent ? standIn : (samples, language) -> {
+            synchronized (lock) {
+                return standIn.translate(samples, language);
+            }
+        };
+        BatchTranslator.Summary summary = new BatchTranslator(backend, languages, workers).run(dir, output);
+        System.out.println(summary);
+        System.out.println("Results: " + output);
+    }
+
+    // Reads every sample, like the model would, and sleeps for the time the model would take at the given rtf
+    private static BatchTranslator.Backend standIn(double rtf) {
+        return (samples, language) -> {
+            double energy = 0;
+            for (int i = 0; i < samples.capacity(); i++) energy += samples.get(i) * samples.get(i);
+            double seconds = samples.capacity() / 16000.0;
+            Thread.sleep((long) (seconds * 1000 / rtf));
+            return String.format(Locale.US, "[%s %.2f s, rms %.3f]", language, seconds, Math.sqrt(energy / Math.max(1, samples.capacity())));
+        };
+    }
+}
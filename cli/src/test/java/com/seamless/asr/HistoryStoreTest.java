@@ -0,0 +1,112 @@
+package com.seamless.asr;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Retention of HistoryStore: the oldest entries are dropped beyond the limits, ids are never reused
+public class HistoryStoreTest {
+    private static final int SAMPLES = 16000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(7);
+
+    @Test
+    public void oldestEntriesAreDroppedBeyondMaxEntries() throws Exception {
+        File dir = folder.newFolder();
+        HistoryStore store = new HistoryStore(dir);
+        store.maxEntries = 8;
+        byte[][] audio = new byte[12][];
+        for (int i = 0; i < audio.length; i++) {
+            int id = store.add(recording(), 1000);
+            assertEquals(i, id);
+            store.addTranslation(id, "eng", "text " + i, 10);
+            audio[i] = bytes(store.getAudio(store.get(id)));
+        }
+        // the 9th add kept entries 3 to 8, the 12th kept 6 to 11
+        assertEquals(6, store.size());
+        assertEquals(11, store.getLastId());
+        assertNull(store.get(5));
+        for (int id = 6; id < audio.length; id++) {
+            HistoryStore.Entry entry = store.get(id);
+            assertEquals(id, entry.id);
+            assertEquals("text " + id, entry.getTranslations().get("eng").text);
+            assertArrayEquals(audio[id], bytes(store.getAudio(entry)));
+        }
+        List<HistoryStore.Entry> page = store.getPage(store.getLastId(), 100);
+        assertEquals(6, page.size());
+        assertEquals(6, page.get(page.size() - 1).id);
+        assertEquals(0, store.getPage(5, 100).size());
+
+        HistoryStore reopened = new HistoryStore(dir);
+        assertEquals(11, reopened.getLastId());
+        assertArrayEquals(audio[7], bytes(reopened.getAudio(reopened.get(7))));
+        assertEquals(3, dir.listFiles().length);  // the files of the first generation are gone
+    }
+
+    @Test
+    public void oldestEntriesAreDroppedBeyondMaxAudioBytes() throws Exception {
+        HistoryStore store = new HistoryStore(folder.newFolder());
+        store.maxAudioBytes = 10L * SAMPLES * 2;
+        for (int i = 0; i < 20; i++) store.add(recording(), 1000);
+        long bytes = 0;
+        for (HistoryStore.Entry entry : store.getPage(store.getLastId(), 100)) bytes += entry.samples * 2L;
+        assertTrue(bytes <= store.maxAudioBytes);
+        assertEquals(19, store.getLastId());
+    }
+
+    @Test
+    public void mappedAudioSurvivesTrimAndClear() throws Exception {
+        HistoryStore store = new HistoryStore(folder.newFolder());
+        store.maxEntries = 4;
+        store.add(recording(), 1000);
+        ByteBuffer mapped = store.getAudio(store.get(0));
+        byte[] before = bytes(mapped);
+        for (int i = 0; i < 6; i++) store.add(recording(), 1000);
+        store.clear();
+        assertArrayEquals(before, bytes(mapped));
+    }
+
+    @Test
+    public void clearKeepsIdsUnique() throws Exception {
+        File dir = folder.newFolder();
+        HistoryStore store = new HistoryStore(dir);
+        store.add(recording(), 1000);
+        int old = store.add(recording(), 1000);
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getPage(store.getLastId(), 10).size());
+        store.addTranslation(old, "eng", "late result", 10);  // of a dropped entry, ignored
+        int id = store.add(recording(), 1000);
+        assertEquals(old + 1, id);
+        assertTrue(store.get(id).getTranslations().isEmpty());
+        assertEquals(id, new HistoryStore(dir).getLastId());
+    }
+
+    // One second of noise, loud enough to count as speech
+    private ByteBuffer recording() {
+        ByteBuffer pcm = ByteBuffer.allocateDirect(SAMPLES * 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < SAMPLES; i++) pcm.putShort((short) (random.nextGaussian() * 6000));
+        pcm.flip();
+        return pcm;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+}
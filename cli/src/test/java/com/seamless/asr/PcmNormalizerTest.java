@@ -0,0 +1,87 @@
+package com.seamless.asr;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Downmix and rate conversion of decoded audio to 16 kHz mono PCM16
+public class PcmNormalizerTest {
+    @Test
+    public void stereoIsAveragedToMono() {
+        PcmNormalizer normalizer = new PcmNormalizer();
+        normalizer.setFormat(PcmNormalizer.SAMPLE_RATE, 2);
+        short[] stereo = {1000, 3000, -2000, -4000, 32767, 32767, -32768, -32768, 100, -100};
+        ShortBuffer out = ShortBuffer.allocate(16);
+        normalizer.process(ShortBuffer.wrap(stereo), out);
+        out.flip();
+        short[] expected = {2000, -3000, 32767, -32768, 0};
+        assertEquals(expected.length, out.remaining());
+        for (short sample : expected) assertEquals(sample, out.get(), 1);
+    }
+
+    @Test
+    public void channelsAreAveraged() {
+        PcmConverter converter = new PcmConverter();
+        FloatBuffer mono = FloatBuffer.allocate(2);
+        converter.downmix(ShortBuffer.wrap(new short[]{300, 600, 900, -300, -600, -900}), 3, mono);
+        assertEquals(600 / 32768f, mono.get(0), 1e-6);
+        assertEquals(-600 / 32768f, mono.get(1), 1e-6);
+    }
+
+    @Test
+    public void cutFrameIsLeftInTheInput() {
+        PcmNormalizer normalizer = new PcmNormalizer();
+        normalizer.setFormat(PcmNormalizer.SAMPLE_RATE, 2);
+        ShortBuffer in = ShortBuffer.wrap(new short[]{1, 2, 3, 4, 5});
+        ShortBuffer out = ShortBuffer.allocate(8);
+        normalizer.process(in, out);
+        assertEquals(2, out.position());
+        assertEquals(1, in.remaining());
+    }
+
+    @Test
+    public void stereo48kBecomes16kMono() {
+        int frames = 48000;
+        short[] stereo = new short[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            short sample = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / 48000));
+            stereo[2 * i] = sample;
+            stereo[2 * i + 1] = sample;
+        }
+        PcmNormalizer normalizer = new PcmNormalizer();
+        normalizer.setFormat(48000, 2);
+        assertTrue(normalizer.isFormat(48000, 2));
+        assertFalse(normalizer.isFormat(44100, 2));
+        ShortBuffer in = ShortBuffer.wrap(stereo);
+        ShortBuffer out = ShortBuffer.allocate(frames / 3 + normalizer.getMaxFlush() + 16);
+        while (in.remaining() >= 2) normalizer.process(in, out);
+        assertEquals(frames / 3, out.position(), 1);
+        normalizer.flush(out);
+        assertTrue(out.position() <= frames / 3 + 1 + normalizer.getMaxFlush());
+        // 440 Hz is in the passband, the peak survives
+        int peak = 0;
+        for (int i = 1000; i < frames / 3 - 1000; i++) peak = Math.max(peak, Math.abs(out.get(i)));
+        assertEquals(8000, peak, 80);
+    }
+
+    @Test
+    public void smallOutputTakesWhatFits() {
+        PcmNormalizer normalizer = new PcmNormalizer();
+        normalizer.setFormat(48000, 1);
+        ShortBuffer in = ShortBuffer.allocate(48000);
+        ShortBuffer out = ShortBuffer.allocate(100);
+        normalizer.process(in, out);
+        assertTrue(in.position() > 0);
+        assertTrue(out.position() <= 100);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void processNeedsAFormat() {
+        new PcmNormalizer().process(ShortBuffer.allocate(2), ShortBuffer.allocate(2));
+    }
+}
@@ -0,0 +1,105 @@
+package com.seamless.asr;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Output length, passband gain and stop-band attenuation of the conversions to 16 kHz that recordings need
+public class ResamplerTest {
+    private static final int OUTPUT_RATE = 16000;
+    private static final double AMPLITUDE = 0.5;
+    private static final int SETTLE = 1000;  // output samples skipped at both ends, where the filter is not full
+
+    @Test
+    public void outputLengthFollowsTheRateRatio() {
+        for (int rate : new int[]{44100, 48000, 22050, 8000}) {
+            for (int n : new int[]{1, 441, 1000, 44100, 48000}) {
+                Resampler resampler = new Resampler(rate, OUTPUT_RATE);
+                FloatBuffer out = FloatBuffer.allocate(resampler.getMaxOutput(n) + resampler.getMaxOutput(Resampler.TAPS));
+                resampler.process(FloatBuffer.allocate(n), out);
+                double expected = (double) n * OUTPUT_RATE / rate;
+                assertEquals(rate + " Hz, " + n + " samples", expected, out.position(), 1);
+                int processed = out.position();
+                resampler.flush(out);
+                assertTrue(out.position() - processed <= resampler.getMaxOutput(Resampler.TAPS));
+            }
+        }
+    }
+
+    @Test
+    public void blockSizeDoesNotChangeTheOutput() {
+        float[] signal = sine(440, 44100, 44100);
+        float[] whole = resample(signal, 44100, signal.length);
+        float[] blocks = resample(signal, 44100, 333);
+        assertArrayEquals(whole, blocks, 0);
+    }
+
+    @Test
+    public void passbandIsKeptAt44100() {
+        assertEquals(0, gainDb(1000, 44100), 0.1);
+    }
+
+    @Test
+    public void passbandIsKeptAt48000() {
+        assertEquals(0, gainDb(1000, 48000), 0.1);
+    }
+
+    @Test
+    public void stopBandIsAttenuatedAt44100() {
+        for (double frequency : new double[]{12000, 15000, 20000}) {
+            double db = gainDb(frequency, 44100);
+            assertTrue(frequency + " Hz only " + db + " dB", db < -60);
+        }
+    }
+
+    @Test
+    public void stopBandIsAttenuatedAt48000() {
+        for (double frequency : new double[]{12000, 15000, 20000, 23000}) {
+            double db = gainDb(frequency, 48000);
+            assertTrue(frequency + " Hz only " + db + " dB", db < -60);
+        }
+    }
+
+    @Test
+    public void sameRatePassesThrough() {
+        Resampler resampler = new Resampler(OUTPUT_RATE, OUTPUT_RATE);
+        assertTrue(resampler.isPassThrough());
+        float[] signal = sine(1000, OUTPUT_RATE, 100);
+        assertArrayEquals(signal, resample(signal, OUTPUT_RATE, 100), 0);
+    }
+
+    // RMS of one second of a sine resampled to 16 kHz, relative to the input
+    private static double gainDb(double frequency, int rate) {
+        float[] out = resample(sine(frequency, rate, rate), rate, 4096);
+        double sum = 0;
+        int count = 0;
+        for (int i = SETTLE; i < OUTPUT_RATE - SETTLE; i++) {
+            sum += out[i] * out[i];
+            count++;
+        }
+        return 20 * Math.log10(Math.sqrt(sum / count) / (AMPLITUDE / Math.sqrt(2)));
+    }
+
+    private static float[] sine(double frequency, int rate, int samples) {
+        float[] signal = new float[samples];
+        for (int i = 0; i < samples; i++) signal[i] = (float) (AMPLITUDE * Math.sin(2 * Math.PI * frequency * i / rate));
+        return signal;
+    }
+
+    // Resamples signal to 16 kHz in blocks of the given size, without flushing
+    private static float[] resample(float[] signal, int rate, int block) {
+        Resampler resampler = new Resampler(rate, OUTPUT_RATE);
+        FloatBuffer out = FloatBuffer.allocate(resampler.getMaxOutput(signal.length) + resampler.getMaxOutput(block));
+        for (int start = 0; start < signal.length; start += block) {
+            resampler.process(FloatBuffer.wrap(signal, start, Math.min(block, signal.length - start)), out);
+        }
+        out.flip();
+        float[] result = new float[out.remaining()];
+        out.get(result);
+        return result;
+    }
+}
@@ -0,0 +1,219 @@
+package com.seamless.asr;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Header parsing of WavReader.read() and stream() on WAV files built in memory
+public class WavReaderTest {
+    private static final short[] SAMPLES = {0, 1, -1, 1000, -1000, 32767, -32768, 12345};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsMono16k() throws Exception {
+        byte[] wav = new Wav().fmt(1, 1, 16000, 16).data(SAMPLES).build();
+        assertArrayEquals(SAMPLES, toArray(WavReader.read(write(wav))));
+        Collector collector = stream(wav);
+        assertEquals(16000, collector.sampleRate);
+        assertEquals(1, collector.channels);
+        assertArrayEquals(SAMPLES, collector.samples());
+    }
+
+    @Test
+    public void acceptsExtensibleFormat() throws Exception {
+        byte[] wav = new Wav().fmt(0xFFFE, 1, 16000, 16).data(SAMPLES).build();
+        assertArrayEquals(SAMPLES, toArray(WavReader.read(write(wav))));
+    }
+
+    @Test
+    public void skipsOddChunksWithTheirPadding() throws Exception {
+        byte[] wav = new Wav().chunk("LIST", new byte[]{1, 2, 3}).fmt(1, 1, 16000, 16)
+                .chunk("junk", new byte[]{4}).data(SAMPLES).build();
+        assertArrayEquals(SAMPLES, toArray(WavReader.read(write(wav))));
+        assertArrayEquals(SAMPLES, stream(wav).samples());
+    }
+
+    @Test
+    public void skipsLongFmtChunks() throws Exception {
+        byte[] wav = new Wav().fmt(1, 1, 16000, 16, 101).data(SAMPLES).build();
+        assertArrayEquals(SAMPLES, toArray(WavReader.read(write(wav))));
+        assertArrayEquals(SAMPLES, stream(wav).samples());
+    }
+
+    @Test
+    public void rejectsFormatsOtherThanPcm16() throws Exception {
+        int[][] formats = {{3, 32}, {1, 8}, {1, 24}, {6, 8}};  // float, 8 bit, 24 bit, A-law
+        for (int[] format : formats) {
+            byte[] wav = new Wav().fmt(format[0], 1, 16000, format[1]).data(SAMPLES).build();
+            try {
+                WavReader.read(write(wav));
+                fail("Format " + format[0] + ", " + format[1] + " bit accepted by read()");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("PCM16"));
+            }
+            try {
+                stream(wav);
+                fail("Format " + format[0] + ", " + format[1] + " bit accepted by stream()");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("PCM16"));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsMissingChunks() throws Exception {
+        byte[] noData = new Wav().fmt(1, 1, 16000, 16).build();
+        byte[] noFmt = new Wav().data(SAMPLES).build();
+        for (byte[] wav : new byte[][]{noData, noFmt}) {
+            try {
+                WavReader.read(write(wav));
+                fail("Accepted by read()");
+            } catch (IOException expected) {
+            }
+            try {
+                stream(wav);
+                fail("Accepted by stream()");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void recognizesWavHeaders() throws Exception {
+        assertTrue(WavReader.isWav(new Wav().fmt(1, 1, 16000, 16).data(SAMPLES).build()));
+        assertFalse(WavReader.isWav("RIFF0000AVI LIST".getBytes(StandardCharsets.US_ASCII)));
+        assertFalse(WavReader.isWav(new byte[4]));
+    }
+
+    @Test
+    public void downmixesStereo() throws Exception {
+        short[] stereo = {1000, 3000, -2000, -4000, 100, -100, 32767, 32767};
+        byte[] wav = new Wav().fmt(1, 2, 16000, 16).data(stereo).build();
+        short[] mono = toArray(WavReader.read(write(wav)));
+        short[] expected = {2000, -3000, 0, 32767};
+        assertEquals(expected.length, mono.length);
+        for (int i = 0; i < expected.length; i++) assertEquals(expected[i], mono[i], 1);
+        // stream() hands out the frames as they are, the sink converts them
+        Collector collector = stream(wav);
+        assertEquals(2, collector.channels);
+        assertArrayEquals(stereo, collector.samples());
+    }
+
+    @Test
+    public void resamplesTo16k() throws Exception {
+        short[] samples = new short[44100];
+        byte[] wav = new Wav().fmt(1, 1, 44100, 16).data(samples).build();
+        assertEquals(16000, WavReader.read(write(wav)).remaining(), Resampler.TAPS);
+    }
+
+    @Test
+    public void readsRawPcm() throws Exception {
+        ByteBuffer pcm = ByteBuffer.allocate(SAMPLES.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short sample : SAMPLES) pcm.putShort(sample);
+        File file = folder.newFile("audio.pcm");
+        Files.write(file.toPath(), pcm.array());
+        assertArrayEquals(SAMPLES, toArray(WavReader.read(file)));
+    }
+
+    private File write(byte[] wav) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), wav);
+        return file;
+    }
+
+    private static Collector stream(byte[] wav) throws IOException, InterruptedException {
+        Collector collector = new Collector();
+        WavReader.stream(new ByteArrayInputStream(wav), collector);
+        return collector;
+    }
+
+    private static short[] toArray(ShortBuffer buffer) {
+        short[] samples = new short[buffer.remaining()];
+        buffer.get(samples);
+        return samples;
+    }
+
+    private static class Collector implements PcmSink {
+        int sampleRate;
+        int channels;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void setFormat(int sampleRate, int channels) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+        }
+
+        @Override
+        public void write(ShortBuffer interleaved) {
+            while (interleaved.hasRemaining()) {
+                short sample = interleaved.get();
+                bytes.write(sample & 0xff);
+                bytes.write((sample >> 8) & 0xff);
+            }
+        }
+
+        short[] samples() {
+            ShortBuffer buffer = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            return toArray(buffer);
+        }
+    }
+
+    // RIFF/WAVE file with the chunks in the order they are added, odd chunks padded
+    private static class Wav {
+        private final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+
+        Wav fmt(int format, int channels, int sampleRate, int bits) {
+            return fmt(format, channels, sampleRate, bits, 16);
+        }
+
+        Wav fmt(int format, int channels, int sampleRate, int bits, int size) {
+            ByteBuffer body = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            body.putShort((short) format).putShort((short) channels).putInt(sampleRate)
+                    .putInt(sampleRate * channels * bits / 8).putShort((short) (channels * bits / 8)).putShort((short) bits);
+            return chunk("fmt ", body.array());
+        }
+
+        Wav data(short[] samples) {
+            ByteBuffer body = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            for (short sample : samples) body.putShort(sample);
+            return chunk("data", body.array());
+        }
+
+        Wav chunk(String id, byte[] body) {
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(id.getBytes(StandardCharsets.US_ASCII)).putInt(body.length);
+            chunks.write(header.array(), 0, 8);
+            chunks.write(body, 0, body.length);
+            if ((body.length & 1) == 1) chunks.write(0);
+            return this;
+        }
+
+        byte[] build() {
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(4 + chunks.size()).put("WAVE".getBytes(StandardCharsets.US_ASCII));
+            ByteArrayOutputStream wav = new ByteArrayOutputStream();
+            wav.write(header.array(), 0, 12);
+            wav.write(chunks.toByteArray(), 0, chunks.size());
+            return wav.toByteArray();
+        }
+    }
+}
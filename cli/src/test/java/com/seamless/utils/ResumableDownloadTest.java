@@ -0,0 +1,214 @@
+package com.seamless.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Runs ResumableDownload against a local HTTP server that drops connections, ignores or misreports ranges
+public class ResumableDownloadTest {
+    private static final int SIZE = 9 * 1024 * 1024 + 12345;  // five chunks, the last one short
+    private static final int CUT = 3 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] content = new byte[SIZE];
+    private HttpServer server;
+    private volatile int cutAfter = 0;         // bytes per response before the connection is dropped, 0 for none
+    private volatile boolean honorRange = true;
+    private volatile long rangeShift = 0;      // added to the start of the range that is served and reported
+    private volatile long failAfter = -1;      // total bytes served before every request fails, -1 for never
+    private final AtomicLong served = new AtomicLong();
+    private ResumableDownload lastDownload;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/model", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void singleConnectionResumesDroppedConnections() throws Exception {
+        cutAfter = CUT;
+        File target = download(1);
+        assertContent(target);
+    }
+
+    @Test
+    public void parallelConnectionsResumeDroppedConnections() throws Exception {
+        cutAfter = CUT;
+        File target = download(4);
+        assertContent(target);
+        assertEquals(0, lastDownload.readBackChunks);  // digested from memory while downloading
+    }
+
+    @Test
+    public void progressNeverCountsRefetchedBytesTwice() throws Exception {
+        cutAfter = CUT;  // cuts every response in the middle of a chunk
+        for (int connections : new int[]{1, 4}) {
+            File target = new File(folder.getRoot(), "progress-" + connections + ".bin");
+            ResumableDownload download = newDownload(target, connections);
+            AtomicLong last = new AtomicLong();
+            AtomicLong max = new AtomicLong();
+            AtomicLong decreases = new AtomicLong();
+            download.setListener((bytesDone, totalBytes) -> {
+                synchronized (last) {
+                    if (bytesDone < last.get()) decreases.incrementAndGet();
+                    last.set(bytesDone);
+                    max.set(Math.max(max.get(), bytesDone));
+                }
+            });
+            download.run();
+            assertContent(target);
+            if (connections == 1) assertEquals(0, decreases.get());  // several connections may report out of order
+            assertEquals(SIZE, max.get());  // reached, but never more
+        }
+    }
+
+    @Test
+    public void serverIgnoringRangeIsSkipped() throws Exception {
+        honorRange = false;
+        assertContent(download(4));
+        assertContent(download(1));
+    }
+
+    @Test
+    public void resumeRefetchesCorruptedChunk() throws Exception {
+        failAfter = 3L * ResumableDownload.CHUNK_SIZE + 1000;
+        File target = folder.newFile("model.bin");
+        target.delete();
+        try {
+            newDownload(target, 1).run();
+            fail("Download should fail");
+        } catch (IOException e) {
+            // expected, the partial file is kept
+        }
+        File part = new File(target.getPath() + ".part");
+        assertTrue(part.exists());
+        assertFalse(target.exists());
+
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {  // damage the second chunk
+            file.seek(ResumableDownload.CHUNK_SIZE + 17);
+            file.write(~content[ResumableDownload.CHUNK_SIZE + 17]);
+        }
+        failAfter = -1;
+        served.set(0);
+        ResumableDownload download = newDownload(target, 1);
+        download.run();
+        assertContent(target);
+        assertEquals(md5(content), download.getDigest());
+        // chunks 0 and 2 are kept, 1 and everything from 3 on are fetched again
+        assertEquals(SIZE - 2L * ResumableDownload.CHUNK_SIZE, served.get());
+        assertEquals(2, download.readBackChunks);
+    }
+
+    @Test
+    public void mismatchingContentRangeIsRejected() throws Exception {
+        rangeShift = 1;
+        File target = folder.newFile("model.bin");
+        target.delete();
+        try {
+            newDownload(target, 4).run();
+            fail("Download should fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Content-Range"));
+        }
+        assertFalse(target.exists());
+    }
+
+    private File download(int connections) throws Exception {
+        File target = new File(folder.getRoot(), "model-" + connections + ".bin");
+        target.delete();
+        ResumableDownload download = newDownload(target, connections);
+        lastDownload = download;
+        download.run();
+        assertEquals(md5(content), download.getDigest());
+        assertFalse(new File(target.getPath() + ".part").exists());
+        assertFalse(new File(target.getPath() + ".chunks").exists());
+        return target;
+    }
+
+    private ResumableDownload newDownload(File target, int connections) throws IOException {
+        ResumableDownload download = new ResumableDownload(new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/model"), target, SIZE);
+        download.setConnections(connections);
+        download.setDigestAlgorithm("MD5");
+        download.retryDelayMillis = 0;
+        return download;
+    }
+
+    private void assertContent(File target) throws IOException {
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = 0;
+        long end = SIZE - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        boolean partial = honorRange && range != null;
+        if (partial) {
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            start = Long.parseLong(bounds[0]) + rangeShift;
+            if (bounds.length > 1 && !bounds[1].isEmpty()) end = Math.min(end, Long.parseLong(bounds[1]));
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + SIZE);
+        }
+        if (failAfter >= 0 && served.get() >= failAfter) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        long length = end - start + 1;
+        exchange.sendResponseHeaders(partial ? 206 : 200, length);
+        long limit = length;
+        if (cutAfter > 0) limit = Math.min(limit, cutAfter);
+        if (failAfter >= 0) limit = Math.min(limit, Math.max(0, failAfter - served.get()));
+        OutputStream out = exchange.getResponseBody();
+        try {
+            int position = (int) start;
+            while (position < start + limit) {
+                int n = (int) Math.min(64 * 1024, start + limit - position);
+                out.write(content, position, n);
+                served.addAndGet(n);
+                position += n;
+            }
+            out.flush();
+        } catch (IOException e) {
+            // client went away
+        }
+        exchange.close();  // before the announced length when cut, the client sees a dropped connection
+    }
+
+    private static String md5(byte[] data) throws Exception {
+        return ResumableDownload.toHex(MessageDigest.getInstance("MD5").digest(data));
+    }
+}